@@ -8,6 +8,8 @@ public class ADSR extends Module {
     private enum      ADSRStage { OFF_STAGE, ATTACK_STAGE, DECAY_STAGE, SUSTAIN_STAGE, RELEASE_STAGE; }
     private ADSRStage currentStage      = ADSRStage.OFF_STAGE;
     private double    out               = 0.0;  // the adsr envelope's final output level for each tick
+    private Rate      rate              = Rate.AUDIO;  // CONSTANT while the last block sat at one level
+    private long      attackTick        = -1;   // the tick at which the last attack started
     // keeps track of prior values in case we changed and need a recompute
     private double priorAttackDurationInSeconds  = 0.3;
     private double priorDecayDurationInSeconds   = 0.3;
@@ -86,7 +88,34 @@ public class ADSR extends Module {
     }
 
     public double tick(long tickCount) {
+        updateParameters();
+        return advance(tickCount, gate.getValue()) * multiplierModule.getValue();
+    }
+
+    @Override
+    public void processBlock(long startTick, int frames, double[] out) {
+        // the envelope times come from the UI, so only look at them once per block
+        updateParameters();
+        double[] gateBlock       = gate.getBlock(startTick, frames);
+        double[] multiplierBlock = multiplierModule.getBlock(startTick, frames);
+        // sustaining or off with a steady gate: the whole block is one value
+        if ((currentStage == ADSRStage.SUSTAIN_STAGE || currentStage == ADSRStage.OFF_STAGE) &&
+            gate.getRate() == Rate.CONSTANT && gateBlock[0] == previousGateValue &&
+            multiplierModule.getRate() == Rate.CONSTANT) {
+            java.util.Arrays.fill(out, 0, frames, this.out * multiplierBlock[0]);
+            currentStageTick += frames;
+            rate = Rate.CONSTANT;
+            return;
+        }
+        rate = Rate.AUDIO;
+        for (int i = 0; i < frames; i++) {
+            out[i] = advance(startTick + i, gateBlock[i]) * multiplierBlock[i];
+        }
+    }
 
+    public Rate getRate() { return rate; }
+
+    private void updateParameters() {
         // update times (if they changed)
         if(attackModule.getValue() != priorAttackDurationInSeconds) {
             setAttack(attackModule.getValue());
@@ -104,17 +133,21 @@ public class ADSR extends Module {
             setRelease(releaseModule.getValue());
             priorReleaseDurationInSeconds = releaseModule.getValue();
         }
+    }
+
+    // moves the envelope forward to tick and returns its (unscaled) output
+    private double advance(long tick, double currentGateValue) {
 
-        // get the current gate value and compare it
+        // compare the current gate value
         // to the previous gate value to ascertain
         // if we should trigger the attack or release stage
-        double currentGateValue = gate.getValue();
         if(previousGateValue != currentGateValue) {
             // reset the stage's current tick
             currentStageTick = 0;
             // set which stage we're at
             if (previousGateValue == 0) {
                 currentStage = ADSRStage.ATTACK_STAGE;
+                attackTick = tick;
             } else {
                 currentStage = ADSRStage.RELEASE_STAGE;
             }
@@ -171,9 +204,15 @@ public class ADSR extends Module {
         // update current stage tick
         currentStageTick += 1;
 
-        return out * multiplierModule.getValue();
+        return out;
     }
 
+    // true once the envelope has finished releasing (or has never been triggered)
+    public boolean isIdle()                   { return currentStage == ADSRStage.OFF_STAGE; }
+    // the tick at which the envelope last started its attack, or -1 if it never has
+    public long getAttackTick()               { return attackTick; }
+    // the envelope's current level, before the multiplier
+    public double getLevel()                  { return out; }
     //
     public void setAttackModule(Module m)     { this.attackModule     = m; }
     public void setDecayModule(Module m)      { this.decayModule      = m; }
@@ -181,4 +220,8 @@ public class ADSR extends Module {
     public void setReleaseModule(Module m)    { this.releaseModule    = m; }
     //
     public void setMultiplierModule(Module m) { this.multiplierModule = m; }
+
+    public Module[] getInputs() {
+        return new Module[] { gate, attackModule, decayModule, sustainModule, releaseModule, multiplierModule };
+    }
 }
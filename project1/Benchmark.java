@@ -0,0 +1,185 @@
+import java.util.ArrayList;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * A small benchmark harness for modules and whole patches (see Bench for the cases).
+ * Each case renders Config.BLOCK_SIZE frames per run.  It is run until the JIT has had
+ * time to settle, then timed over several trials, and the fastest trial is reported as
+ * nanoseconds per sample and as how many copies of it one core could render in realtime.
+ */
+public class Benchmark {
+    private static final double WARMUP_SECONDS = 2.0;
+    private static final double TRIAL_SECONDS = 0.5;
+    private static final int TRIALS = 5;
+
+    // keeps the JIT from throwing away work whose result nobody reads
+    static volatile double sink;
+
+    /**
+     * Renders one block starting at startTick
+     */
+    public interface Case {
+        void run(long startTick);
+    }
+
+    /**
+     * A gate which opens and closes every quarter second, so envelopes go through all their stages
+     */
+    public static class Gate extends Module {
+        private static final long PERIOD = (long) (Config.SAMPLING_RATE / 4);
+
+        public double tick(long tickCount) {
+            return (tickCount / PERIOD) % 2 == 0 ? 1.0 : 0.0;
+        }
+    }
+
+    /**
+     * Renders module and everything it reads one sample at a time through tick(),
+     * the way every module was rendered before block processing
+     */
+    public static Case tick(final Module module) {
+        final Module[] plan = ModuleGraph.compile(module, new ArrayList<Module>());
+        return new Case() {
+            public void run(long startTick) {
+                // no block is being rendered, so getValue() returns each module's last tick
+                Module.renderStart = -1;
+                double sum = 0;
+                for (int i = 0; i < Config.BLOCK_SIZE; i++) {
+                    for (Module m : plan) {
+                        m.doUpdate(startTick + i);
+                    }
+                    sum += module.getValue();
+                }
+                sink += sum;
+            }
+        };
+    }
+
+    /**
+     * Renders module and everything it reads a block at a time through getBlock()
+     */
+    public static Case block(final Module module) {
+        final Module[] plan = ModuleGraph.compile(module, new ArrayList<Module>());
+        return new Case() {
+            public void run(long startTick) {
+                for (Module m : plan) {
+                    m.getBlock(startTick, Config.BLOCK_SIZE);
+                }
+                sink += module.getBlock(startTick, Config.BLOCK_SIZE)[Config.BLOCK_SIZE - 1];
+            }
+        };
+    }
+
+    /**
+     * Renders a complete patch built by Synth.setup(), holding down the given number of notes
+     */
+    public static Case patch(final Synth synth, int notes) {
+        synth.setMidi(new Midi());
+        synth.setup();
+        synth.compile();
+        for (int i = 0; i < notes; i++) {
+            synth.getMidi().schedule(ShortMessage.NOTE_ON, 48 + i * 3, 100, 0);
+        }
+        return new Case() {
+            public void run(long startTick) {
+                sink += synth.renderBlock()[Config.BLOCK_SIZE - 1];
+            }
+        };
+    }
+
+    /**
+     * Calls Utils.sinTurns() alone, worked out the given way, for phases spread over the cycle
+     */
+    public static Case sine(final Utils.Sine sine) {
+        return new Case() {
+            public void run(long startTick) {
+                double sum = 0;
+                for (int i = 0; i < Config.BLOCK_SIZE; i++) {
+                    // an irrational step, so every part of the cycle (and of any table) is read
+                    sum += Utils.sinTurns((startTick + i) * 0.6180339887498949, sine);
+                }
+                sink += sum;
+            }
+        };
+    }
+
+    /**
+     * Times c and returns the fastest trial in nanoseconds per sample
+     */
+    public static double measure(Case c) {
+        long tick = 0;
+        long end = System.nanoTime() + (long) (WARMUP_SECONDS * 1.0e9);
+        while (System.nanoTime() < end) {
+            c.run(tick);
+            tick += Config.BLOCK_SIZE;
+        }
+
+        double best = Double.MAX_VALUE;
+        for (int trial = 0; trial < TRIALS; trial++) {
+            long blocks = 0;
+            long start = System.nanoTime();
+            end = start + (long) (TRIAL_SECONDS * 1.0e9);
+            long now;
+            do {
+                c.run(tick);
+                tick += Config.BLOCK_SIZE;
+                blocks++;
+                now = System.nanoTime();
+            } while (now < end);
+            best = Math.min(best, (now - start) / (double) (blocks * Config.BLOCK_SIZE));
+        }
+        return best;
+    }
+
+    /**
+     * Measures c, which renders the given number of voices at once, and prints the result
+     */
+    public static void report(String name, Case c, int voices) {
+        double nanos = measure(c);
+        double budget = 1.0e9 / Config.SAMPLING_RATE;
+        System.out.printf("%-36s %10.1f ns/sample %10.0f voices/core%n", name, nanos, budget * voices / nanos);
+    }
+
+    public static void report(String name, Case c) {
+        report(name, c, 1);
+    }
+
+    /**
+     * Prints how far Utils.sinTurns() worked out the given way strays from Math.sin(): its
+     * worst error over a second of a 1 kHz tone, and the distortion and noise (THD+N) it adds
+     * to that tone, relative to the tone
+     */
+    public static void accuracy(String name, Utils.Sine sine) {
+        int frames = (int) Config.SAMPLING_RATE;
+        double[] tone = new double[frames];
+        double worst = 0;
+        // project the tone onto an exact 1 kHz sine and cosine; what's left over is THD+N
+        double sin = 0;
+        double cos = 0;
+        for (int i = 0; i < frames; i++) {
+            double phase = i * 1000.0 / Config.SAMPLING_RATE;
+            tone[i] = Utils.sinTurns(phase, sine);
+            worst = Math.max(worst, Math.abs(tone[i] - Math.sin(2 * Math.PI * phase)));
+            sin += tone[i] * Math.sin(2 * Math.PI * phase);
+            cos += tone[i] * Math.cos(2 * Math.PI * phase);
+        }
+        sin *= 2.0 / frames;
+        cos *= 2.0 / frames;
+        double residual = 0;
+        for (int i = 0; i < frames; i++) {
+            double phase = i * 1000.0 / Config.SAMPLING_RATE;
+            double r = tone[i] - sin * Math.sin(2 * Math.PI * phase) - cos * Math.cos(2 * Math.PI * phase);
+            residual += r * r;
+        }
+        double fundamental = (sin * sin + cos * cos) / 2 * frames;
+        System.out.printf("%-36s %10.1e max error %10.1f dB THD+N%n", name, worst, 10 * Math.log10(residual / fundamental));
+    }
+
+    /**
+     * Prints the header for a table of results
+     */
+    public static void header(String title) {
+        System.out.println(title + " (" + Config.SAMPLING_RATE + " Hz, blocks of " + Config.BLOCK_SIZE + ")");
+        System.out.printf("%-36s %20s %22s%n", "case", "time", "realtime");
+    }
+}
@@ -0,0 +1,403 @@
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Properties;
+import java.util.concurrent.locks.LockSupport;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Lets MIDI controllers turn the patch's parameters, with no window needed.  Parameters are
+ * registered by name, and each may be bound to a controller: a plain 7-bit CC, a 14-bit CC
+ * (MSB on CC n, LSB on CC n + 32, for n under 32), an NRPN or an RPN.  Bindings are made
+ * by hand, through JMX, from a file, or by learning: the next controller moved is bound to
+ * the parameter waiting for it.
+ *
+ * Midi hands controller messages to handle() on the MIDI device's thread as they arrive,
+ * and they are parsed there with Midi.Parser.  The value is published straight to the
+ * parameter, which the audio thread picks up at its next block without locking (see
+ * Parameter).  Controller values are scaled to 0 ... 1, or to a choice for a parameter
+ * which has choices, such as an Options menu.  A binding learned there only swaps in a new
+ * bindings array; announcing it and saving the file are left to a thread of the surface's own.
+ */
+public class ControlSurface implements ControlSurfaceMBean {
+
+    /**
+     * The kinds of controller a parameter may be bound to
+     */
+    public enum Type {
+        CC("cc"), CC_14_BIT("cc14"), NRPN("nrpn"), RPN("rpn");
+
+        private final String name;
+
+        Type(String name) {
+            this.name = name;
+        }
+
+        public String toString() {
+            return name;
+        }
+
+        public static Type forName(String name) {
+            for (Type t : values()) {
+                if (t.name.equalsIgnoreCase(name)) {
+                    return t;
+                }
+            }
+            throw new IllegalArgumentException("Controller type must be cc, cc14, nrpn or rpn, not " + name);
+        }
+    }
+
+    /**
+     * Binds a parameter to a controller on a channel (0 to 15), or on any channel if channel is ANY
+     */
+    public static class Binding {
+        public static final int ANY = -1;
+
+        public final String name;
+        public final Parameter parameter;
+        public final Type type;
+        public final int channel;
+        public final int number;
+
+        public Binding(String name, Parameter parameter, Type type, int channel, int number) {
+            this.name = name;
+            this.parameter = parameter;
+            this.type = type;
+            this.channel = channel;
+            this.number = number;
+        }
+
+        boolean matches(Type type, int channel, int number) {
+            return this.type == type && this.number == number && (this.channel == ANY || this.channel == channel);
+        }
+
+        /**
+         * Returns the binding as "type channel number", which bind(name, spec) reads back
+         */
+        public String getSpec() {
+            return type + " " + (channel == ANY ? "any" : String.valueOf(channel + 1)) + " " + number;
+        }
+
+        public String toString() {
+            return name + " = " + getSpec();
+        }
+    }
+
+    private static final double MAX_7_BIT = 127.0;
+    private static final double MAX_14_BIT = 16383.0;
+
+    // registered parameters by name; only touched under the lock
+    private final LinkedHashMap<String, Parameter> parameters = new LinkedHashMap<String, Parameter>();
+    // replaced whole whenever a binding changes, so the MIDI thread can read it without locking
+    private volatile Binding[] bindings = new Binding[0];
+    private volatile String learning = null;
+    private volatile File file = null;
+    // the last MSB of each 14-bit CC on each channel, for combining with its LSB; MIDI thread only
+    private final int[][] msb = new int[16][32];
+    // what the parser last decoded, reused so that turning a knob makes no garbage; MIDI thread only
+    private final Midi.CCData data = new Midi.CCData();
+    // bumped by the MIDI thread whenever it changes a binding, and the last one it learned,
+    // for the saver to announce and write out
+    private volatile int changes = 0;
+    private volatile Binding learned = null;
+    private final Thread saver;
+    // keeps the saver and a save() through JMX from writing the file at once
+    private final Object saving = new Object();
+
+    public ControlSurface() {
+        saver = new Thread(new Runnable() {
+            public void run() {
+                int saved = 0;
+                Binding announced = null;
+                while (true) {
+                    LockSupport.park(this);
+                    if (changes != saved) {
+                        saved = changes;
+                        Binding b = learned;
+                        if (b != null && b != announced) {
+                            announced = b;
+                            System.err.println("Learned " + b);
+                        }
+                        save();
+                    }
+                }
+            }
+        }, "Control Surface");
+        saver.setDaemon(true);
+        saver.start();
+    }
+
+    /**
+     * Registers a new parameter, starting at initial, and returns it for wiring into the patch
+     */
+    public Parameter add(String name, double initial) {
+        Parameter parameter = new Parameter(initial);
+        register(name, parameter);
+        return parameter;
+    }
+
+    /**
+     * Registers an existing parameter, such as a Dial's or Options' module, under name
+     */
+    public synchronized void register(String name, Parameter parameter) {
+        if (parameters.containsKey(name)) {
+            throw new IllegalArgumentException("A parameter is already registered as " + name);
+        }
+        parameters.put(name, parameter);
+    }
+
+    /**
+     * Registers every parameter among modules which isn't registered already, naming each
+     * after its class and how many of that class came before it (dial1, dial2, options1...)
+     */
+    public synchronized void registerAll(Iterable<? extends Module> modules) {
+        LinkedHashMap<String, Integer> counts = new LinkedHashMap<String, Integer>();
+        for (Module m : modules) {
+            if (!(m instanceof Parameter) || parameters.containsValue(m)) {
+                continue;
+            }
+            String base = m.getClass().getSimpleName().replaceFirst("Module$", "").toLowerCase();
+            int count = counts.containsKey(base) ? counts.get(base) : 0;
+            String name;
+            do {
+                name = base + (++count);
+            } while (parameters.containsKey(name));
+            counts.put(base, count);
+            parameters.put(name, (Parameter) m);
+        }
+    }
+
+    public synchronized Parameter getParameter(String name) {
+        return parameters.get(name);
+    }
+
+    /**
+     * Binds the named parameter to a controller, replacing any binding it had.  channel is 0
+     * to 15, or Binding.ANY.
+     */
+    public synchronized void bind(String name, Type type, int channel, int number) {
+        Parameter parameter = parameters.get(name);
+        if (parameter == null) {
+            throw new IllegalArgumentException("No parameter is registered as " + name);
+        }
+        int max = type == Type.CC_14_BIT ? 31 : type == Type.CC ? 127 : 16383;
+        if (number < 0 || number > max) {
+            throw new IllegalArgumentException(type + " number must be 0 to " + max + ", not " + number);
+        }
+        if (channel < Binding.ANY || channel > 15) {
+            throw new IllegalArgumentException("Channel must be 0 to 15 or ANY, not " + channel);
+        }
+        ArrayList<Binding> list = without(name);
+        list.add(new Binding(name, parameter, type, channel, number));
+        bindings = list.toArray(new Binding[list.size()]);
+    }
+
+    public void bind(String name, String spec) {
+        String[] words = spec.trim().split("\\s+");
+        if (words.length != 3) {
+            throw new IllegalArgumentException("A binding must be \"type channel number\", not " + spec);
+        }
+        try {
+            int channel = words[1].equalsIgnoreCase("any") ? Binding.ANY : Integer.parseInt(words[1]) - 1;
+            bind(name, Type.forName(words[0]), channel, Integer.parseInt(words[2]));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("A binding must be \"type channel number\", not " + spec);
+        }
+    }
+
+    public synchronized void unbind(String name) {
+        ArrayList<Binding> list = without(name);
+        bindings = list.toArray(new Binding[list.size()]);
+    }
+
+    // the current bindings, less any for name
+    private ArrayList<Binding> without(String name) {
+        ArrayList<Binding> list = new ArrayList<Binding>();
+        for (Binding b : bindings) {
+            if (!b.name.equals(name)) {
+                list.add(b);
+            }
+        }
+        return list;
+    }
+
+    public synchronized void learn(String name) {
+        if (!parameters.containsKey(name)) {
+            throw new IllegalArgumentException("No parameter is registered as " + name);
+        }
+        learning = name;
+    }
+
+    public void cancelLearn() {
+        learning = null;
+    }
+
+    public String getLearning() {
+        return learning;
+    }
+
+    public synchronized String[] getParameters() {
+        String[] result = new String[parameters.size()];
+        int i = 0;
+        for (String name : parameters.keySet()) {
+            result[i++] = name + " = " + parameters.get(name).getPublished();
+        }
+        return result;
+    }
+
+    public String[] getBindings() {
+        Binding[] current = bindings;
+        String[] result = new String[current.length];
+        for (int i = 0; i < current.length; i++) {
+            result[i] = current[i].toString();
+        }
+        return result;
+    }
+
+    /**
+     * Makes the surface available through JMX
+     */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("Synth:type=ControlSurface"));
+        } catch (JMException ex) {
+            System.err.println("Could not register control surface with JMX: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Keeps the bindings in file: loads any there now, and saves them whenever one is learned.
+     * Bindings for parameters which aren't registered are skipped.
+     */
+    public void setFile(File file) {
+        this.file = file;
+        if (!file.exists()) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (Reader in = new FileReader(file)) {
+            properties.load(in);
+        } catch (IOException ex) {
+            System.err.println("Could not read controller bindings from " + file + ": " + ex.getMessage());
+            return;
+        }
+        for (String name : properties.stringPropertyNames()) {
+            try {
+                bind(name, properties.getProperty(name));
+            } catch (IllegalArgumentException ex) {
+                System.err.println("Skipping controller binding in " + file + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    public void save() {
+        if (file == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        for (Binding b : bindings) {
+            properties.setProperty(b.name, b.getSpec());
+        }
+        synchronized (saving) {
+            try (Writer out = new FileWriter(file)) {
+                properties.store(out, "Controller bindings: name = cc|cc14|nrpn|rpn channel|any number");
+            } catch (IOException ex) {
+                System.err.println("Could not write controller bindings to " + file + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Handles a controller message, which parser (owned by the caller's thread) has not yet seen
+     */
+    public void handle(ShortMessage message, Midi.Parser parser) {
+        int channel = message.getChannel();
+        int number = message.getData1();
+        int value = message.getData2();
+        if (parser.processCC(channel, number, value, false, false, data) == null) {
+            return;
+        }
+        if (data.type == Midi.CCData.TYPE_RAW_CC) {
+            if (number < 32) {
+                msb[channel][number] = value;
+                dispatch(Type.CC_14_BIT, channel, number, false, (value << 7) / MAX_14_BIT);
+            } else if (number < 64) {
+                upgrade(channel, number - 32);
+                dispatch(Type.CC_14_BIT, channel, number - 32, false, ((msb[channel][number - 32] << 7) | value) / MAX_14_BIT);
+            }
+            dispatch(Type.CC, channel, number, false, value / MAX_7_BIT);
+        } else {
+            Type type = data.type == Midi.CCData.TYPE_NRPN ? Type.NRPN : Type.RPN;
+            if (data.increment) {
+                dispatch(type, channel, data.number, true, data.value);
+            } else if (data.validMSB) {
+                dispatch(type, channel, data.number, false, data.value / MAX_14_BIT);
+            } else {
+                // a controller sending only the LSB is a 7-bit one
+                dispatch(type, channel, data.number, false, data.value / MAX_7_BIT);
+            }
+        }
+    }
+
+    // value is 0 ... 1, or if increment is true, how many steps to move
+    private void dispatch(Type type, int channel, int number, boolean increment, double value) {
+        String name = learning;
+        if (name != null && type != Type.CC_14_BIT) {
+            learned(name, type, channel, number);
+        }
+        Binding[] current = bindings;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].matches(type, channel, number)) {
+                publish(current[i].parameter, value, increment);
+            }
+        }
+    }
+
+    private synchronized void learned(String name, Type type, int channel, int number) {
+        // another message may have got here first
+        if (!name.equals(learning)) {
+            return;
+        }
+        learning = null;
+        bind(name, type, channel, number);
+        learned = new Binding(name, parameters.get(name), type, channel, number);
+        changed();
+    }
+
+    // a CC binding for n < 32 whose LSB (CC n + 32) turns up is really a 14-bit one
+    private void upgrade(int channel, int number) {
+        for (Binding b : bindings) {
+            if (b.type == Type.CC && b.number == number && (b.channel == Binding.ANY || b.channel == channel)) {
+                bind(b.name, Type.CC_14_BIT, b.channel, number);
+                changed();
+            }
+        }
+    }
+
+    // wakes the saver; the MIDI thread never does the I/O itself
+    private void changed() {
+        changes++;
+        LockSupport.unpark(saver);
+    }
+
+    // value is 0 ... 1, or if steps is true, how many steps to move up (or down)
+    private static void publish(Parameter parameter, double value, boolean steps) {
+        int choices = parameter.getChoices();
+        if (choices > 0) {
+            // a step moves to the next choice
+            double choice = steps ? parameter.getPublished() + value : Math.floor(value * choices);
+            parameter.publish(Math.max(0, Math.min(choices - 1, choice)));
+        } else {
+            double v = steps ? parameter.getPublished() + value / MAX_7_BIT : value;
+            parameter.publish(Math.max(0.0, Math.min(1.0, v)));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * What ControlSurface exposes through JMX (under "Synth:type=ControlSurface"), so that a
+ * headless synth's controllers can be bound from jconsole or a script
+ */
+public interface ControlSurfaceMBean {
+    /**
+     * Returns every parameter, as "name = value"
+     */
+    String[] getParameters();
+
+    /**
+     * Returns every binding, as "name = type channel number" (see bind())
+     */
+    String[] getBindings();
+
+    /**
+     * Returns the parameter waiting for a controller, or null
+     */
+    String getLearning();
+
+    /**
+     * Binds the named parameter to the next controller moved
+     */
+    void learn(String name);
+
+    /**
+     * Stops waiting for a controller to learn
+     */
+    void cancelLearn();
+
+    /**
+     * Binds the named parameter, with spec being "type channel number": type is cc, cc14,
+     * nrpn or rpn, and channel is 1 to 16 or "any"
+     */
+    void bind(String name, String spec);
+
+    /**
+     * Removes the named parameter's binding
+     */
+    void unbind(String name);
+
+    /**
+     * Writes the bindings to the surface's file
+     */
+    void save();
+}
@@ -2,6 +2,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 
 public class Hammond extends Module {
+    // frequency of each drawbar relative to the fundamental (see recalibrateFrequencyModulators)
+    private static final double[] HARMONICS = {0.5, 1.5, 1, 2, 3, 4, 5, 6, 8};
     private Osc[]    oscillators;
     private Module[] frequencyModulators;
     private Module[] amplitudeModulators;
@@ -75,8 +77,7 @@ public class Hammond extends Module {
         amplitudeModulators[8].setValue(amplitudeValues[8]);
     }
 
-    public double tick(long tickCount) {
-
+    private void updatePreset() {
         // maybe update preset
         if(presetModulator.getValue() != lastPreset &&
            presetModulator.getValue() <= presets.length) {
@@ -84,6 +85,11 @@ public class Hammond extends Module {
                 setAmplitudeValues(presets[presetIndex]);
                 lastPreset = presetIndex;
         }
+    }
+
+    public double tick(long tickCount) {
+
+        updatePreset();
 
         // update oscillators' frequency
         recalibrateFrequencyModulators();
@@ -97,10 +103,47 @@ public class Hammond extends Module {
         return out;
     }
 
+    @Override
+    public void processBlock(long startTick, int frames, double[] out) {
+
+        updatePreset();
+
+        double[] f = frequency.getBlock(startTick, frames);
+        // a held note's frequency only needs converting once per oscillator
+        boolean steady = frequency.getRate() == Rate.CONSTANT;
+        Utils.Sine sine = Utils.getSine();
+        java.util.Arrays.fill(out, 0, frames, 0.5);
+        // run each oscillator across the whole block in turn (drawbars are read once per block)
+        for(int k = 0; k < oscillators.length; ++k) {
+            double ratio = HARMONICS[k];
+            double gain  = 0.125 * Math.min(Math.max(0, amplitudeModulators[k].getValue()), 8.0);
+            int state = oscillators[k].state;
+            int increment = Phase.increment(Utils.valueToHz(f[0]*ratio));
+            for(int i = 0; i < frames; ++i) {
+                state += steady ? increment : Phase.increment(Utils.valueToHz(f[i]*ratio));
+                out[i] += (Utils.sinPhase(state, sine) * 0.5 + 0.5) * gain;
+            }
+            oscillators[k].state = state;
+        }
+        // remove clipping
+        for(int i = 0; i < frames; ++i) {
+            out[i] *= 0.05;
+        }
+    }
+
     public void setPresetMod(Module m) {
         this.presetModulator = m;
     }
 
+    // the oscillators and their frequency modulators are ticked from here, so they aren't inputs
+    public Module[] getInputs() {
+        Module[] inputs = new Module[amplitudeModulators.length + 2];
+        inputs[0] = frequency;
+        inputs[1] = presetModulator;
+        System.arraycopy(amplitudeModulators, 0, inputs, 2, amplitudeModulators.length);
+        return inputs;
+    }
+
     private void instantiatePresets() {
         presets = new int[][]{
                 // "Alone in the City"
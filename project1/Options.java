@@ -2,7 +2,6 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
-import java.util.concurrent.locks.ReentrantLock;
 
 /** 
     A widget which displays a labelled options choice.  If the options
@@ -19,61 +18,34 @@ public class Options extends JPanel
     JLabel label;
     int optionNumber;
     
-    ReentrantLock lock = new ReentrantLock();
-    
     void _setValue(double val)
     	{
-    	lock.lock();
-		try
+		if (checkbox != null)
 			{
-			if (checkbox != null)
-				{
-				checkbox.setSelected(val == 1);
-				}
-			else
-				{
-				combo.setSelectedIndex((int)val);
-				}
+			checkbox.setSelected(val == 1);
 			}
-		finally
+		else
 			{
-			lock.unlock();
+			combo.setSelectedIndex((int)val);
 			}
+		optionsModule.publish((int)val);
     	}
     	
     int _getValue()
     	{
-    	lock.lock();
-		try
-			{
-			if (checkbox != null)
-				{
-				return (checkbox.isSelected() ? 1 : 0);
-				}
-			else
-				{
-				return combo.getSelectedIndex();
-				}
-			}
-		finally
-			{
-			lock.unlock();
-			}
+		return (int)optionsModule.getPublished();
     	}
  
-    class OptionsModule extends Module
+    // The widgets publish each change, and the audio thread reads the
+    // choice once per block without locking or touching Swing (see Parameter)
+    class OptionsModule extends Parameter
         {
+        OptionsModule() { super(0); }
+
         public void setValue(double value) 
             {
             _setValue(value);
             }
-                
-        public double getValue()
-            {
-            return _getValue();
-            }
-
-        public double tick(long tickCount) { return 0; }  // unused
         };
 
     OptionsModule optionsModule = new OptionsModule();
@@ -87,11 +59,14 @@ public class Options extends JPanel
 		checkbox.setFont(SMALL_FONT);
 		checkbox.putClientProperty("JComponent.sizeVariant", "small");
 		checkbox.setSelected(checked);
+		optionsModule.publish(checked ? 1 : 0);
+		optionsModule.setChoices(2);
 		checkbox.addItemListener(new ItemListener()
 			{
 			public void itemStateChanged(ItemEvent e)
 				{
 				int val = (checkbox.isSelected() ? 1 : 0);
+				optionsModule.publish(val);
 				}
 			});
 		setLayout(new BorderLayout());
@@ -116,12 +91,15 @@ public class Options extends JPanel
             combo.setFont(SMALL_FONT);
             combo.setMaximumRowCount(32);
             combo.setSelectedIndex(def);
+            optionsModule.publish(def);
+            optionsModule.setChoices(options.length);
 
             combo.addItemListener(new ItemListener()
                 {
                 public void itemStateChanged(ItemEvent e)
                     {
                     int val = combo.getSelectedIndex();
+                    optionsModule.publish(val);
                     }
                 });
                         
@@ -0,0 +1,141 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Converts blocks of samples into signed little-endian mono PCM for the audio line or a
+ * WAV file.  Samples range from 0 to 1 like everything the synth emits, and come out
+ * centred on Config.SILENCE.  16-bit output is dithered (TPDF, one LSB each way); 24-bit
+ * and 32-bit float output have far more resolution than any DAC and are not.
+ *
+ * Each format has its own straight loop with no branches but the clamp, storing through a
+ * VarHandle view of the byte array, so the JIT can keep it tight.
+ */
+public class PcmConverter {
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle FLOAT = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final double MAX_16 = 32767.0;
+    private static final double MAX_24 = 8388607.0;
+
+    /**
+     * The formats we can write, most precise first
+     */
+    public enum Format {
+        FLOAT_32(32), PCM_24(24), PCM_16(16);
+
+        private final int bits;
+
+        Format(int bits) {
+            this.bits = bits;
+        }
+
+        public int getBits() {
+            return bits;
+        }
+
+        public int getBytes() {
+            return bits / 8;
+        }
+
+        /**
+         * Returns the mono audio format at Config.SAMPLING_RATE which this writes
+         */
+        public AudioFormat getAudioFormat() {
+            if (this == FLOAT_32) {
+                return new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, Config.SAMPLING_RATE, bits, 1,
+                                       getBytes(), Config.SAMPLING_RATE, false);
+            }
+            return new AudioFormat(Config.SAMPLING_RATE, bits, 1, true, false);
+        }
+
+        /**
+         * Returns the format with the given bit depth: 16, 24 or 32 (float)
+         */
+        public static Format forBits(int bits) {
+            for (Format f : values()) {
+                if (f.bits == bits) {
+                    return f;
+                }
+            }
+            throw new IllegalArgumentException("Bit depth must be 16, 24, or 32, not " + bits);
+        }
+    }
+
+    private final Format format;
+    private double gain = 1.0;
+    // xorshift state for the dither; fixed, so offline renders come out the same every time
+    private int seed = 0x2545F491;
+
+    public PcmConverter(Format format) {
+        this.format = format;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Scales everything converted from now on
+     */
+    public void setGain(double gain) {
+        this.gain = gain;
+    }
+
+    /**
+     * Converts count samples, starting at samples[from], into out starting at offset.
+     * Returns the number of bytes written.
+     */
+    public int convert(double[] samples, int from, int count, byte[] out, int offset) {
+        switch (format) {
+            case FLOAT_32:
+                toFloat32(samples, from, count, out, offset);
+                break;
+            case PCM_24:
+                toPcm24(samples, from, count, out, offset);
+                break;
+            default:
+                toPcm16(samples, from, count, out, offset);
+                break;
+        }
+        return count * format.getBytes();
+    }
+
+    private void toFloat32(double[] samples, int from, int count, byte[] out, int offset) {
+        double scale = 2.0 * gain;
+        for (int i = 0; i < count; i++) {
+            double v = (samples[from + i] - Config.SILENCE) * scale;
+            v = Math.max(-1.0, Math.min(1.0, v));
+            FLOAT.set(out, offset + 4 * i, (float) v);
+        }
+    }
+
+    private void toPcm24(double[] samples, int from, int count, byte[] out, int offset) {
+        double scale = 2.0 * gain * MAX_24;
+        for (int i = 0; i < count; i++) {
+            double v = (samples[from + i] - Config.SILENCE) * scale;
+            int val = (int) Math.rint(Math.max(-MAX_24, Math.min(MAX_24, v)));
+            int o = offset + 3 * i;
+            out[o] = (byte) val;
+            out[o + 1] = (byte) (val >> 8);
+            out[o + 2] = (byte) (val >> 16);
+        }
+    }
+
+    private void toPcm16(double[] samples, int from, int count, byte[] out, int offset) {
+        double scale = 2.0 * gain * MAX_16;
+        int s = seed;
+        for (int i = 0; i < count; i++) {
+            // two uniform values from one xorshift step sum to triangular noise of +/- 1 LSB
+            s ^= s << 13;
+            s ^= s >>> 17;
+            s ^= s << 5;
+            double dither = ((s & 0xFFFF) + (s >>> 16)) * (1.0 / 65536.0) - 1.0;
+            double v = (samples[from + i] - Config.SILENCE) * scale + dither;
+            int val = (int) Math.floor(Math.max(-MAX_16 - 1.0, Math.min(MAX_16, v)) + 0.5);
+            SHORT.set(out, offset + 2 * i, (short) val);
+        }
+        seed = s;
+    }
+}
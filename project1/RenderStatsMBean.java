@@ -0,0 +1,35 @@
+/**
+ * What RenderStats exposes through JMX (under "Synth:type=RenderStats").  Timings cover
+ * the last complete window; the counts are since the synth started.
+ */
+public interface RenderStatsMBean {
+    long getBlocks();
+
+    double getAverageBlockMicros();
+
+    double getMaxBlockMicros();
+
+    /**
+     * Returns the average time spent rendering a block, as a percentage of the time it takes to play
+     */
+    double getDeadlineUsage();
+
+    double getPeakDeadlineUsage();
+
+    /**
+     * Returns how many blocks took longer to render than to play
+     */
+    long getOverruns();
+
+    /**
+     * Returns how many times the audio output ran dry
+     */
+    long getUnderruns();
+
+    /**
+     * Returns each kind of module's share of the rendering time, most expensive first
+     */
+    String[] getModuleCosts();
+
+    String getSummary();
+}
@@ -0,0 +1,92 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder events, so that a recording (java -XX:StartFlightRecording ...) shows
+ * what the synth was doing alongside the garbage collections and deoptimizations which
+ * may have caused a glitch.  Each is only made when its type is enabled, so when nothing
+ * is recording they cost a check.
+ */
+public class SynthEvents {
+    // looked up once, so the audio and output threads can check for a recording before
+    // making an event: an event made when nothing is recording would still be garbage
+    static final EventType RENDER_BLOCK = EventType.getEventType(RenderBlock.class);
+    static final EventType MIDI_ARRIVAL = EventType.getEventType(MidiArrival.class);
+    static final EventType LINE_WRITE = EventType.getEventType(LineWrite.class);
+    static final EventType UNDERRUN = EventType.getEventType(Underrun.class);
+
+    @Name("synth.RenderBlock")
+    @Label("Render Block")
+    @Category("Synth")
+    @Description("The patch rendering one block")
+    @StackTrace(false)
+    public static class RenderBlock extends Event {
+        @Label("Start Tick")
+        long startTick;
+
+        @Label("Frames")
+        int frames;
+
+        @Label("Voices")
+        @Description("Voices sounding in the patch's voice allocators")
+        int voices;
+    }
+
+    @Name("synth.MidiArrival")
+    @Label("MIDI Arrival")
+    @Category("Synth")
+    @Description("A MIDI message from a device reaching the patch")
+    @StackTrace(false)
+    public static class MidiArrival extends Event {
+        @Label("Status")
+        int status;
+
+        @Label("Data 1")
+        int data1;
+
+        @Label("Data 2")
+        int data2;
+
+        @Label("Delay")
+        @Description("From the device handing the message to Midi until the patch read it")
+        @Timespan(Timespan.NANOSECONDS)
+        long delay;
+
+        @Label("Tick")
+        @Description("The tick the message is scheduled to play at")
+        long tick;
+    }
+
+    @Name("synth.LineWrite")
+    @Label("Slow Line Write")
+    @Category("Synth")
+    @Description("A write to the audio line which blocked for longer than the period it wrote")
+    @StackTrace(false)
+    public static class LineWrite extends Event {
+        @Label("Size")
+        @DataAmount
+        int bytes;
+
+        @Label("Period")
+        @Timespan(Timespan.NANOSECONDS)
+        long period;
+    }
+
+    @Name("synth.Underrun")
+    @Label("Underrun")
+    @Category("Synth")
+    @Description("The audio output waiting on the renderer until the line ran dry")
+    @StackTrace(false)
+    public static class Underrun extends Event {
+        @Label("Underruns")
+        @Description("Underruns so far, this one included")
+        long count;
+    }
+}
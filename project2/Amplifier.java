@@ -20,7 +20,27 @@ public class Amplifier extends Module {
 
     public Module getInput() { return input; }
 
+    public Module[] getInputs() {
+        return new Module[] { input, amplitudeMod };
+        }
+
     public double tick(long tickCount) {
         return input.getValue() * amplitudeMod.getValue();
         }
+
+    public void processBlock(long startTick, int frames, double[] out) {
+        double[] in = input.getBlock(startTick, frames);
+        double[] amp = amplitudeMod.getBlock(startTick, frames);
+        // an envelope holding steady (or a fixed gain) needn't be read every frame
+        if (amplitudeMod.getRate() == Rate.CONSTANT) {
+            double gain = amp[0];
+            for (int i = 0; i < frames; i++) {
+                out[i] = in[i] * gain;
+                }
+            return;
+            }
+        for (int i = 0; i < frames; i++) {
+            out[i] = in[i] * amp[i];
+            }
+        }
     }
@@ -0,0 +1,161 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Feeds the audio line from its own thread.  The renderer fills periods of PCM from a
+ * preallocated ring and hands them over without locking; the output thread writes each
+ * period to the line in one large write.  A stall in rendering is absorbed by whatever
+ * is queued in the ring, and the (blocking) line write happens once per period rather
+ * than every few samples.
+ *
+ * Only one thread may render into the ring.
+ */
+public class AudioOutput implements Runnable {
+    // the longest either side sleeps before checking the ring again, in case a wakeup was missed
+    private static final long PARK_NANOS = 1000000;
+
+    private final SourceDataLine line;
+    private final byte[][] ring;
+    private final int periodFrames;
+    private final long periodNanos;
+    private final long startTick;
+    // next period to write to the line, written only by the output thread
+    private final AtomicLong head = new AtomicLong();
+    // next period to render, written only by the renderer
+    private final AtomicLong tail = new AtomicLong();
+    private volatile Thread renderThread;
+    private volatile Thread outputThread;
+    // how many times the line itself ran dry because the renderer fell behind
+    private volatile long underruns = 0;
+
+    // the tick of the next frame to go to the line as of System.nanoTime() clockNanos, guarded by clockVersion (odd while changing)
+    private volatile int clockVersion = 0;
+    private volatile long clockFrames = 0;
+    private volatile long clockNanos = System.nanoTime();
+
+    /**
+     * Creates a ring of the given number of periods, each periodFrames long, for a line
+     * whose frames are bytesPerFrame bytes.  The first frame rendered into it is startTick.
+     */
+    public AudioOutput(SourceDataLine line, int periodFrames, int periods, int bytesPerFrame, long startTick) {
+        this.line = line;
+        this.startTick = startTick;
+        this.clockFrames = startTick;
+        this.periodFrames = periodFrames;
+        this.periodNanos = (long) (periodFrames * 1.0e9 / Config.SAMPLING_RATE);
+        this.ring = new byte[periods][periodFrames * bytesPerFrame];
+    }
+
+    /**
+     * Starts the output thread
+     */
+    public void start() {
+        clockNanos = System.nanoTime();
+        Thread thread = new Thread(this, "Audio Output");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        outputThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Renderer side: returns the next period to fill, waiting while the ring is full
+     */
+    public byte[] acquire() {
+        renderThread = Thread.currentThread();
+        long t = tail.get();
+        while (t - head.get() >= ring.length) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+        return ring[(int) (t % ring.length)];
+    }
+
+    /**
+     * Renderer side: hands the period returned by acquire() to the output thread
+     */
+    public void publish() {
+        tail.lazySet(tail.get() + 1);     // release: the period is filled before it is published
+        LockSupport.unpark(outputThread);
+    }
+
+    /**
+     * Renderer side: waits until every period published has gone to the line
+     */
+    public void drain() {
+        renderThread = Thread.currentThread();
+        while (head.get() != tail.get()) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+    }
+
+    public void run() {
+        long frames = startTick;
+        while (true) {
+            long h = head.get();
+            if (h == tail.get()) {
+                SynthEvents.Underrun underrun = SynthEvents.UNDERRUN.isEnabled() ? new SynthEvents.Underrun() : null;
+                if (underrun != null) {
+                    underrun.begin();
+                }
+                while (h == tail.get()) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                // an empty ring is only an underrun if the line emptied too before the next
+                // period came, and nothing is due before the first period is published
+                if (h > 0 && line.available() >= line.getBufferSize()) {
+                    underruns++;
+                    if (underrun != null) {
+                        underrun.count = underruns;
+                        underrun.commit();
+                    }
+                }
+            }
+            byte[] period = ring[(int) (h % ring.length)];
+            SynthEvents.LineWrite write = SynthEvents.LINE_WRITE.isEnabled() ? new SynthEvents.LineWrite() : null;
+            if (write != null) {
+                write.begin();
+            }
+            long start = System.nanoTime();
+            line.write(period, 0, period.length);
+            // a write normally blocks until the line has room for it: only report one which blocked too long
+            if (write != null && System.nanoTime() - start > periodNanos) {
+                write.bytes = period.length;
+                write.period = periodNanos;
+                write.commit();
+            }
+            head.lazySet(h + 1);          // release: the period is written before it is handed back
+            LockSupport.unpark(renderThread);
+
+            frames += periodFrames;
+            clockVersion++;
+            clockFrames = frames;
+            clockNanos = System.nanoTime();
+            clockVersion++;
+        }
+    }
+
+    /**
+     * Tells midi where the sample clock is.  The renderer runs up to a full ring ahead of
+     * the line, and in bursts, so rather than its own position this uses the steadier pace
+     * at which periods go to the line, plus the length of the ring.
+     */
+    public void setClock(Midi midi) {
+        int version;
+        long frames, nanos;
+        do {
+            version = clockVersion;
+            frames = clockFrames;
+            nanos = clockNanos;
+        } while ((version & 1) != 0 || version != clockVersion);
+        midi.setClock(frames + (long) ring.length * periodFrames, nanos);
+    }
+
+    /**
+     * Returns how many times the line ran dry because the renderer fell behind, not counting
+     * the wait for the first period
+     */
+    public long getUnderruns() {
+        return underruns;
+    }
+}
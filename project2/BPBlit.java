@@ -11,6 +11,17 @@ public class BPBlit extends Blit {
         return this.phaseMod;
     }
 
+    // offPhaseBlit is ticked from here, so it isn't an input
+    public Module[] getInputs() {
+        return new Module[] { frequencyMod, amplitudeMod, phaseMod };
+    }
+
+    @Override
+    public void setKernel(Kernel kernel) {
+        super.setKernel(kernel);
+        offPhaseBlit.setKernel(kernel);
+    }
+
     @Override
     public void setFrequencyMod(Module frequencyMod) {
         super.setFrequencyMod(frequencyMod);
@@ -0,0 +1,87 @@
+/**
+ * Benchmarks each of project 2's modules, both a sample at a time through tick() and a
+ * block at a time, followed by the complete patch from Synth.setup() with every voice playing.
+ * Run it with "make bench" and compare the results before and after a change.
+ */
+public class Bench {
+    public static void main(String[] args) {
+        // the patch builds its controls, but there's no need to show them
+        System.setProperty("java.awt.headless", "true");
+        Benchmark.header("Project 2");
+
+        for (Utils.Sine sine : Utils.Sine.values()) {
+            Benchmark.report("Utils.sinTurns " + sine, Benchmark.sine(sine));
+            Benchmark.accuracy("Utils.sinTurns " + sine, sine);
+        }
+
+        Benchmark.report("Osc tick", Benchmark.tick(new Osc()));
+        Benchmark.report("Osc block", Benchmark.block(new Osc()));
+
+        Benchmark.report("Blit tick", Benchmark.tick(new Blit()));
+        Benchmark.report("Blit.sincm", sincm());
+        Benchmark.report("BlitSaw tick", Benchmark.tick(new BlitSaw()));
+        Benchmark.report("BlitSquare tick", Benchmark.tick(new BlitSquare()));
+        Benchmark.report("BPBlit tick", Benchmark.tick(new BPBlit()));
+        Benchmark.report("BlitSaw block", Benchmark.block(new BlitSaw()));
+        Benchmark.report("BlitSquare block", Benchmark.block(new BlitSquare()));
+        Benchmark.report("BlitSaw block, closed form", Benchmark.block(closedForm(new BlitSaw())));
+        Benchmark.report("BlitSquare block, closed form", Benchmark.block(closedForm(new BlitSquare())));
+
+        Benchmark.report("WavetableOsc saw tick", Benchmark.tick(new WavetableOsc(Wavetable.getSaw())));
+        Benchmark.report("WavetableOsc saw block", Benchmark.block(new WavetableOsc(Wavetable.getSaw())));
+        Benchmark.report("WavetablePulse block", Benchmark.block(new WavetablePulse()));
+
+        Benchmark.report("PolyBlep saw block", Benchmark.block(new PolyBlep(PolyBlep.Shape.SAW)));
+        Benchmark.report("PolyBlep pulse block", Benchmark.block(new PolyBlep(PolyBlep.Shape.PULSE)));
+        Benchmark.report("PolyBlep triangle block", Benchmark.block(new PolyBlep(PolyBlep.Shape.TRIANGLE)));
+        Benchmark.report("PolyBlep saw block, hard synced", Benchmark.block(synced()));
+
+        Benchmark.report("LPF on BlitSaw tick", Benchmark.tick(lpf(new ConstantValue(0.5))));
+        Benchmark.report("LPF on BlitSaw block", Benchmark.block(lpf(new ConstantValue(0.5))));
+        // a swept cutoff recalculates the coefficients every sample
+        Benchmark.report("LPF on BlitSaw block, swept cutoff", Benchmark.block(lpf(new Osc())));
+
+        Benchmark.report("ADSR tick", Benchmark.tick(new ADSR(new Benchmark.Gate())));
+        Benchmark.report("ADSR block", Benchmark.block(new ADSR(new Benchmark.Gate())));
+
+        Benchmark.report("Synth.setup() patch, 8 notes", Benchmark.patch(new Synth(), 8), 8);
+        // the patch's controls start timers which would otherwise keep us running
+        System.exit(0);
+    }
+
+    // a low pass filter on a saw, with the given cutoff
+    static LPF lpf(Module cutoff) {
+        return new LPF(new BlitSaw(), cutoff, new ConstantValue(0.2));
+    }
+
+    // blit with the impulses it made before they came from a table
+    static Blit closedForm(Blit blit) {
+        blit.setKernel(Blit.Kernel.CLOSED_FORM);
+        return blit;
+    }
+
+    // a saw hard synced to another a fifth below
+    static PolyBlep synced() {
+        PolyBlep master = new PolyBlep(PolyBlep.Shape.SAW);
+        master.setFrequencyMod(new ConstantValue(Utils.hzToValue(220)));
+        PolyBlep slave = new PolyBlep(PolyBlep.Shape.SAW);
+        slave.setFrequencyMod(new ConstantValue(Utils.hzToValue(330)));
+        slave.setSyncMaster(master);
+        return slave;
+    }
+
+    // Blit.sincm() alone, over the range of arguments a 220Hz BLIT gives it
+    static Benchmark.Case sincm() {
+        final Blit blit = new Blit();
+        final double m = Math.floor(Config.SAMPLING_RATE / 220 / 2.0) * 2.0 + 1.0;
+        return new Benchmark.Case() {
+            public void run(long startTick) {
+                double sum = 0;
+                for (int i = 0; i < Config.BLOCK_SIZE; i++) {
+                    sum += blit.sincm(((startTick + i) % 1000) * 0.01, m);
+                }
+                Benchmark.sink += sum;
+            }
+        };
+    }
+}
@@ -1,5 +1,75 @@
+/**
+ * A band-limited impulse train: one impulse per period, with every harmonic up to Nyquist.
+ * BlitSaw and BlitSquare integrate it into their waves.
+ *
+ * By default each impulse is a windowed sinc read from a table (oversampled, with linear
+ * interpolation), so a sample costs one or two table reads rather than the two calls to
+ * Math.sin() the closed form of the impulse train needs.  The table is normalized so that
+ * each impulse adds exactly 1 whatever its fractional position, as the closed form does,
+ * so the integrators see no drift.
+ *
+ * Kernel.CLOSED_FORM gives the original output, bit for bit: it keeps the original phase, a
+ * count of samples since the last impulse in a double, while the table keeps its phase in
+ * fixed point (see Phase).
+ */
 public class Blit extends Osc {
+
+    public enum Kernel { CLOSED_FORM, TABLE }
+
+    // how many samples either side of an impulse its sinc reaches
+    static final int HALF_WIDTH = 8;
+    // table entries per sample
+    static final int OVERSAMPLING = 256;
+    // where the sinc is cut off, as a fraction of Nyquist: the window takes the rest
+    static final double CUTOFF = 0.95;
+    static final float[] KERNEL = buildKernel();
+
+    // the closed form's phase, in samples
     double phase;
+    Kernel kernel = Kernel.TABLE;
+
+    public void setKernel(Kernel kernel) {
+        this.kernel = kernel;
+    }
+
+    public Kernel getKernel() {
+        return kernel;
+    }
+
+    // a Blackman windowed sinc from -HALF_WIDTH to HALF_WIDTH samples (plus a guard entry)
+    static float[] buildKernel() {
+        int size = 2 * HALF_WIDTH * OVERSAMPLING;
+        double[] k = new double[size + 1];
+        for (int i = 0; i <= size; i++) {
+            double x = (i - HALF_WIDTH * OVERSAMPLING) / (double) OVERSAMPLING;
+            double sinc = x == 0 ? 1 : Math.sin(Math.PI * CUTOFF * x) / (Math.PI * CUTOFF * x);
+            double w = (double) i / size;
+            double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * w) + 0.08 * Math.cos(4 * Math.PI * w);
+            k[i] = CUTOFF * sinc * window;
+        }
+        // make the samples of an impulse sum to 1 at every fractional position
+        for (int f = 0; f < OVERSAMPLING; f++) {
+            double sum = 0;
+            for (int i = f; i <= size; i += OVERSAMPLING) {
+                sum += k[i];
+            }
+            for (int i = f; i <= size; i += OVERSAMPLING) {
+                k[i] /= sum;
+            }
+        }
+        float[] table = new float[size + 2];
+        for (int i = 0; i <= size; i++) {
+            table[i] = (float) k[i];
+        }
+        return table;
+    }
+
+    // the impulse at x samples from its centre
+    static double impulse(double x) {
+        double position = (x + HALF_WIDTH) * OVERSAMPLING;
+        int i = (int) position;
+        return KERNEL[i] + (KERNEL[i + 1] - KERNEL[i]) * (position - i);
+    }
 
     public double sincm(double x, double m) {
         double v = m * Math.sin(Math.PI * x / m);
@@ -12,6 +82,11 @@ public class Blit extends Osc {
         return tick(tickCount, 0);
     }
 
+    // the BLIT family keeps per-sample state in its tick(..., d) chain, so skip Osc's sine block
+    public void processBlock(long startTick, int frames, double[] out) {
+        tickBlock(startTick, frames, out);
+    }
+
     // Note that BLIT will generate values below 0.  That's okay I guess, we're not using it
     // as a serious audio output source, just scaled derivatives of it like saw.
 
@@ -19,10 +94,33 @@ public class Blit extends Osc {
         double freq = Utils.valueToHz(getFrequencyMod().getValue());
         freq = Math.min(Math.max(1.0, freq), Config.NYQUIST_LIMIT); // clamp so we don't get INF below
         double p = Config.SAMPLING_RATE / freq;
-        double m = Math.floor(p / 2.0) * 2.0 + 1.0;
-        double val = (m / p) * sincm((phase - d * p) * m / p, m);
+        double val;
+        if (kernel == Kernel.CLOSED_FORM) {
+            double m = Math.floor(p / 2.0) * 2.0 + 1.0;
+            val = (m / p) * sincm((phase - d * p) * m / p, m);
+        } else {
+            // samples since the impulse d periods back
+            val = impulses(Phase.toTurns(state - Phase.fromTurns(d)) * p, p);
+        }
+        // both phases move on, so the kernel can be changed at any time
         phase++;
         if (phase >= p) phase -= p;
+        state += Phase.increment(freq);
+        return val;
+    }
+
+    // The impulses within reach of a sample x samples after one of them (give or take
+    // periods of p samples).  Only at high frequencies is there more than one.
+    static double impulses(double x, double p) {
+        x -= Math.floor(x / p) * p;
+        // the latest impulse at or before the sample, and those before and after it
+        double val = 0;
+        for (double y = x; y < HALF_WIDTH; y += p) {
+            val += impulse(y);
+        }
+        for (double y = x - p; y > -HALF_WIDTH; y -= p) {
+            val += impulse(y);
+        }
         return val;
     }
 }
\ No newline at end of file
@@ -6,4 +6,18 @@ public class Config {
     public static final double INV_SAMPLING_RATE = 1.0 / SAMPLING_RATE;
     public static final double NYQUIST_LIMIT = SAMPLING_RATE / 2.0;
     public static final double INV_NYQUIST_LIMIT = 1.0 / NYQUIST_LIMIT;
+    /**
+     * Number of frames rendered per pass through the module graph (32 - 256)
+     */
+    public static final int BLOCK_SIZE = 64;
+    /**
+     * Number of frames between control rate updates, such as filter coefficients
+     * and parameter smoothing steps (no larger than BLOCK_SIZE)
+     */
+    public static final int CONTROL_RATE = 16;
+    /**
+     * The sample value which comes out as silence.  Samples range from 0 to 1, and
+     * full scale on output is SILENCE +/- 0.5
+     */
+    public static final double SILENCE = 0.0;
     }
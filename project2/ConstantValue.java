@@ -6,4 +6,19 @@ public class ConstantValue extends Module {
     public double tick(long tickCount) {
         return getValue();
         }
+
+    public Rate getRate() {
+        return Rate.CONSTANT;
+        }
+
+    // the block only needs filling when the value has changed since the last one
+    private double filled = Double.NaN;
+
+    public void processBlock(long startTick, int frames, double[] out) {
+        double value = getValue();
+        if (value != filled) {
+            java.util.Arrays.fill(out, value);
+            filled = value;
+            }
+        }
     }
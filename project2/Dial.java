@@ -3,7 +3,6 @@ import java.awt.geom.*;
 import javax.swing.border.*;
 import javax.swing.*;
 import java.awt.event.*;
-import java.util.concurrent.locks.*;
 
 public class Dial extends JPanel
     {
@@ -38,44 +37,28 @@ public class Dial extends JPanel
     JLabel title = null;
     JLabel data = null;
 
-    class DialModule extends Module
+    // the audio thread reads the dial once per block, without locking, and
+    // by default ramps to each new value across the block (see Parameter)
+    class DialModule extends Parameter
         {
-        ReentrantLock lock = new ReentrantLock();
+        DialModule() 
+            { 
+            super(0.0); 
+            setSmoothing(Smoothing.LINEAR);
+            }
 
         public void setValueNoRepaint(double value) 
             {
-            lock.lock();
-            try
-                {
-                super.setValue(value);
-                }
-            finally
-                {
-                lock.unlock();
-                }
+            publish(value);
             }
                 
         public void setValue(double value) 
             {
             setValueNoRepaint(value);
+            if (data != null)
+                data.setText(" " + map(value));
             repaint();
             }
-                
-        public double getValue()
-            {
-            lock.lock();
-            try
-                {
-                return super.getValue();
-                }
-            finally
-                {
-                lock.unlock();
-                }
-            }
-
-        public double tick(long tickCount) { return 0; }  // unused
-        public void doUpdate(long tickCount) { }
         };
 
     DialModule dialModule = new DialModule();
@@ -112,7 +95,7 @@ public class Dial extends JPanel
                 
     double getState() 
         { 
-        return dialModule.getValue(); 
+        return dialModule.getPublished(); 
         }
         
     /** Returns the actual square within which the Dial's circle is drawn. */
@@ -174,6 +157,9 @@ public class Dial extends JPanel
         }
 
     public Module getModule() { return dialModule; }
+
+    /** Sets how the dial's module moves to a new value as the dial turns */
+    public void setSmoothing(Parameter.Smoothing smoothing) { dialModule.setSmoothing(smoothing); }
                 
     public JPanel getLabelledDial(String label)
         {
@@ -204,7 +190,7 @@ public class Dial extends JPanel
         {
         if (initialValue < 0) initialValue = 0;
         if (initialValue > 1) initialValue = 1;
-        dialModule.setValueNoRepaint(initialValue);
+        dialModule.setInitialValue(initialValue);
             
         addMouseListener(new MouseAdapter()
             {                        
@@ -18,4 +18,6 @@ public abstract class Filter extends Module {
     }
 
     public void setInput(Module input) { this.input = input; }
+
+    public Module[] getInputs() { return new Module[] { input }; }
 }
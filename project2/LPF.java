@@ -15,6 +15,9 @@ public class LPF extends Filter {
     public void setFrequencyMod(Module frequencyMod) { this.frequencyMod = frequencyMod; }
     public void setResonanceMod(Module resonanceMod) { this.resonanceMod = resonanceMod; }
 
+    @Override
+    public Module[] getInputs() { return new Module[] { input, frequencyMod, resonanceMod }; }
+
     @Override
     public double tick(long tickCount) {
 
@@ -59,6 +62,43 @@ public class LPF extends Filter {
         return y0;
     }
 
+    @Override
+    public void processBlock(long startTick, int frames, double[] out) {
+        double[] in        = input.getBlock(startTick, frames);
+        double[] frequency = frequencyMod.getBlock(startTick, frames);
+        double[] resonance = resonanceMod.getBlock(startTick, frames);
+        // keep the filter state in locals for the duration of the block
+        double x1 = x[0], x2 = x[1];
+        double y1 = y[0], y2 = y[1];
+        // with a fixed cutoff and resonance there's only one control period: the whole block
+        int period = (frequencyMod.getRate() == Rate.CONSTANT && resonanceMod.getRate() == Rate.CONSTANT)
+            ? frames : Config.CONTROL_RATE;
+        for (int start = 0; start < frames; start += period) {
+            // if cutoff/resonance changed, calculate coefficients, but only once per
+            // control period: an envelope on the cutoff changes it every sample
+            if (frequency[start] != lastFrequencyModValue || resonance[start] != lastResonanceModValue) {
+                lastFrequencyModValue = frequency[start];
+                lastResonanceModValue = resonance[start];
+                calculateCoefficients(frequency[start], resonance[start]);
+            }
+            double a1 = a[0], a2 = a[1];
+            double b1 = b[0], b2 = b[1];
+            int end = Math.min(frames, start + period);
+            for (int i = start; i < end; i++) {
+                double x0 = in[i];
+                double y0 = clamp(b0*x0 + b1*x1 + b2*x2 - a1*y1 - a2*y2);
+                // shift saved input/output (same order as tick())
+                x1 = x2;
+                x2 = x0;
+                y1 = y2;
+                y2 = y0;
+                out[i] = y0;
+            }
+        }
+        x[0] = x1; x[1] = x2;
+        y[0] = y1; y[1] = y2;
+    }
+
     private double clamp(double x) {
         // hopefully java can figure out this is 1 x86 instruction... probably not
         return Math.max(0.0, Math.min(x, 1.0));
@@ -66,6 +106,10 @@ public class LPF extends Filter {
 
 
     private void calculateCoefficients() {
+        calculateCoefficients(frequencyMod.getValue(), resonanceMod.getValue());
+    }
+
+    private void calculateCoefficients(double frequency, double resonance) {
 
         // see lecture notes for 2nd order butterworth
         // b0 == (1/J) * M
@@ -85,9 +129,9 @@ public class LPF extends Filter {
 
         // intermediary
         double T        = Config.INV_SAMPLING_RATE;
-        double hz       = Utils.valueToHz(frequencyMod.getValue());
+        double hz       = Utils.valueToHz(frequency);
         double w0       = hz>0 ? 2*Math.PI*hz : 0.0001;
-        double Q        = resonanceMod.getValue()*10 + Math.sqrt(0.5);
+        double Q        = resonance*10 + Math.sqrt(0.5);
         double M        = w0*w0*Q*T*T;
         double J        = 4*Q + 2*w0*T + M;
         double oneOverJ = 1/J;
@@ -0,0 +1,125 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Measures how long it takes from a note arriving from a MIDI device until it can be
+ * heard.  VoiceAllocator reports the tick at which each live note's envelope started its
+ * attack; the time until the line plays that tick (by its frame position) is added to the
+ * time since the note arrived.  The results go into a histogram of BUCKET_MICROS wide
+ * buckets, which can be read through JMX and is printed when the synth exits.
+ *
+ * Only the audio thread may call record(), and it is the only thread which writes the
+ * histogram: reset() just asks it to clear everything before the next note it records.
+ */
+public class LatencyMonitor implements LatencyMonitorMBean {
+    private static final int BUCKET_MICROS = 100;
+    // a second's worth of buckets; anything slower lands in the last one
+    private static final int BUCKETS = 10000;
+
+    private final SourceDataLine line;
+    private final long startTick;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private volatile long count = 0;
+    private volatile long maxNanos = 0;
+    private volatile boolean resetPending = false;
+
+    /**
+     * Measures notes played through line, the first frame written to which is startTick
+     */
+    public LatencyMonitor(SourceDataLine line, long startTick) {
+        this.line = line;
+        this.startTick = startTick;
+    }
+
+    /**
+     * Makes the histogram available through JMX
+     */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("Synth:type=Latency"));
+        } catch (JMException ex) {
+            System.err.println("Could not register latency histogram with JMX: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Prints the histogram's summary when the JVM shuts down
+     */
+    public void printOnExit() {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                System.err.println(getSummary());
+            }
+        }, "Latency Summary"));
+    }
+
+    /**
+     * Records a note which arrived at System.nanoTime() arrivalNanos and starts sounding at tick
+     */
+    public void record(long arrivalNanos, long tick) {
+        long now = System.nanoTime();
+        if (resetPending) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.lazySet(i, 0);
+            }
+            maxNanos = 0;
+            count = 0;
+            resetPending = false;
+        }
+        long queued = tick - startTick - line.getLongFramePosition();
+        long nanos = now - arrivalNanos + (long) (queued * 1.0e9 / Config.SAMPLING_RATE);
+        int bucket = (int) Math.max(0, Math.min(BUCKETS - 1, nanos / (BUCKET_MICROS * 1000L)));
+        counts.lazySet(bucket, counts.get(bucket) + 1);
+        if (nanos > maxNanos) {
+            maxNanos = nanos;
+        }
+        count++;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the latency which the given fraction (0 to 1) of notes came in under, in milliseconds
+     */
+    public double getPercentileMillis(double fraction) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        long target = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen > 0 && seen >= target) {
+                return (i + 1) * BUCKET_MICROS / 1000.0;
+            }
+        }
+        return 0;
+    }
+
+    public double getMedianMillis() {
+        return getPercentileMillis(0.5);
+    }
+
+    public double getP99Millis() {
+        return getPercentileMillis(0.99);
+    }
+
+    public double getMaxMillis() {
+        return maxNanos / 1.0e6;
+    }
+
+    public String getSummary() {
+        return String.format("MIDI to audio latency over %d notes: p50 %.1f ms, p99 %.1f ms, max %.1f ms",
+                             getCount(), getMedianMillis(), getP99Millis(), getMaxMillis());
+    }
+
+    public void reset() {
+        resetPending = true;
+    }
+}
@@ -0,0 +1,22 @@
+/**
+ * What LatencyMonitor exposes through JMX (under "Synth:type=Latency")
+ */
+public interface LatencyMonitorMBean {
+    /**
+     * Returns how many notes have been measured
+     */
+    long getCount();
+
+    double getMedianMillis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+
+    String getSummary();
+
+    /**
+     * Forgets everything measured so far, as of the next note recorded
+     */
+    void reset();
+}
@@ -1,96 +1,183 @@
-import javax.sound.midi.MidiMessage;
 import javax.sound.midi.ShortMessage;
 
 /**
  * This is a class which does a lot of midi missage processing
  * It sets a few values internally which are useful to extract in other modules
  * By default, as a module, it outputs the pitch (with bend) as a value from 0 to 1
+ *
+ * Messages are scheduled for the tick they should be played at and applied at that
+ * frame within the block, so notes start and stop on the right sample rather than
+ * at the next block boundary.
  **/
 public class MidiModule extends Module {
-    private static final double base = Math.pow(2, 1 / 12.0);
+    // Linux Java distros have a bug: pitch bend data is treated
+    // as a signed two's complement integer, which is wrong, wrong, wrong.
+    // So we have to special-case it here, by flipping the top bit of the MSB. See:
+    //
+    // https://bugs.openjdk.java.net/browse/JDK-8075073
+    // https://bugs.launchpad.net/ubuntu/+source/openjdk-8/+bug/1755640
+    private static final int BEND_MSB_FLIP = Utils.isUnix() ? 64 : 0;
     Midi midi;
+    // the pitch of each note and each position of the bend wheel
+    private Tuning tuning = Tuning.getDefault();
+    // reused for every event polled from midi
+    private final Midi.Event event = new Midi.Event();
+    // messages waiting for their tick, in the order they were scheduled
+    private static final int SCHEDULE_SIZE = 64;
+    private final long[] scheduledTick = new long[SCHEDULE_SIZE];
+    private final int[] scheduledStatus = new int[SCHEDULE_SIZE];
+    private final int[] scheduledData1 = new int[SCHEDULE_SIZE];
+    private final int[] scheduledData2 = new int[SCHEDULE_SIZE];
+    private int scheduleHead = 0;
+    private int scheduled = 0;
+    // the gate at each frame of the last block rendered, for MidiGate
+    private final double[] gates = new double[Config.BLOCK_SIZE];
+    // CONSTANT if no message changed anything partway through the last block
+    private Rate rate = Rate.AUDIO;
     private int lastnote = 0;
     private double pitch;
     private double velocity;
     private double bend = 1.0;
-    private double rawBend;
     //private double rawVal;
 
     public MidiModule(Midi midi) {
         this.midi = midi;
         }
 
+    /**
+     * Sets the pitch of each note and how far the bend wheel moves it, from the next message on
+     **/
+    public void setTuning(Tuning tuning) {
+        this.tuning = tuning;
+        }
+
+    public Tuning getTuning() {
+        return tuning;
+        }
+
     // Processes a PITCH BEND message.
-    void processPitchBend(ShortMessage sm) {
-        int lsb = sm.getData1();
-        int msb = sm.getData2();
-
-        // Linux Java distros have a bug: pitch bend data is treated
-        // as a signed two's complement integer, which is wrong, wrong, wrong.
-        // So we have to special-case it here. See:
-        //
-        // https://bugs.openjdk.java.net/browse/JDK-8075073
-        // https://bugs.launchpad.net/ubuntu/+source/openjdk-8/+bug/1755640
-
-        if (Utils.isUnix()) {
-            if (msb >= 64) {
-                msb = msb - 64;
-                } else {
-                msb = msb + 64;
-                }
+    void processPitchBend(int lsb, int msb) {
+        bend = tuning.getBendRatio(lsb | ((msb ^ BEND_MSB_FLIP) << 7));
+        }
+
+
+    /**
+     * Starts playing the given note (0 - 127) at the given velocity (0 - 127).
+     * A velocity of 0 is a note off.
+     **/
+    public void noteOn(int note, int vel) {
+        lastnote = note;
+        velocity = vel / 127.0;
+        updatePitch();
+        }
+
+    /**
+     * Stops the given note, if it is the one currently playing
+     **/
+    public void noteOff(int note) {
+        if (note == lastnote) {
+            velocity = 0;
             }
+        }
 
-        int rawBend = (lsb + msb * 128) - 8192;
+    void updatePitch() {
+        // as Utils.hzToValue() would, but the note's value is already in the table
+        pitch = Math.min(1.0, tuning.getValue(lastnote) * bend);
+        }
 
-        if (rawBend < -8191) {
-            rawBend = -8191;
+    // Applies a single MIDI message to this module
+    void handle(int status, int data1, int data2) {
+        switch (status & 0xF0) {
+        case ShortMessage.NOTE_ON:
+            noteOn(data1, data2);
+            break;
+        case ShortMessage.NOTE_OFF:
+            noteOff(data1);
+            break;
+        case ShortMessage.PITCH_BEND:
+            processPitchBend(data1, data2);
+            updatePitch();
+            break;
+        default:
+            break;
             }
+        }
 
-        // The 2 at the end is the octave
-        this.rawBend = rawBend / 8191.0 * 24;
-        bend = Utils.hybridpow(2.0, rawBend / 8191.0 * 2);
+    /**
+     * Schedules a MIDI message to be applied at the given tick.  Messages are applied in the
+     * order they were scheduled.  If too many are waiting, this one is applied immediately.
+     **/
+    public void schedule(long tick, int status, int data1, int data2) {
+        if (scheduled == SCHEDULE_SIZE) {
+            handle(status, data1, data2);
+            return;
+            }
+        int slot = (scheduleHead + scheduled) % SCHEDULE_SIZE;
+        scheduledTick[slot] = tick;
+        scheduledStatus[slot] = status;
+        scheduledData1[slot] = data1;
+        scheduledData2[slot] = data2;
+        scheduled++;
+        }
 
+    // Returns true if messages are waiting for a later tick
+    public boolean hasScheduled() {
+        return scheduled > 0;
         }
 
+    // Applies every scheduled message which is due by tickCount
+    private void applyScheduled(long tickCount) {
+        while (scheduled > 0 && scheduledTick[scheduleHead] <= tickCount) {
+            handle(scheduledStatus[scheduleHead], scheduledData1[scheduleHead], scheduledData2[scheduleHead]);
+            scheduleHead = (scheduleHead + 1) % SCHEDULE_SIZE;
+            scheduled--;
+            }
+        }
+
+    // a MidiModule without a Midi is played by someone else (see VoiceAllocator)
+    private void pollMidi() {
+        if (midi == null) {
+            return;
+            }
+        while (midi.poll(event)) {
+            schedule(event.tick, event.status, event.data1, event.data2);
+            }
+        }
 
     @Override
     public double tick(long tickCount) {
-        MidiMessage[] messages = midi.getNextMessages();
-        int note = 0;
-        int vel = 0;
-        for (MidiMessage message : messages) {
-            if (message instanceof ShortMessage) {
-                ShortMessage sm = (ShortMessage) message;
-                switch (sm.getCommand()) {
-                case ShortMessage.NOTE_ON:
-                    note = sm.getData1();
-                    vel = sm.getData2();
-                    break;
-                case ShortMessage.NOTE_OFF:
-                    note = sm.getData1();
-                    if (note == lastnote) {
-                        vel = 0;
-                        } else {
-                        continue;
-                        }
-                    break;
-                case ShortMessage.PITCH_BEND:
-                    processPitchBend(sm);
-                default:
-                    note = lastnote;
-                    vel = (int) (velocity * 127);
-                    break;
+        pollMidi();
+        applyScheduled(tickCount);
+        return pitch;
+        }
 
+    @Override
+    public void processBlock(long startTick, int frames, double[] out) {
+        pollMidi();
+        rate = Rate.CONSTANT;
+        for (int i = 0; i < frames; i++) {
+            if (scheduled > 0 && scheduledTick[scheduleHead] <= startTick + i) {
+                applyScheduled(startTick + i);
+                if (i > 0) {
+                    rate = Rate.AUDIO;
                     }
-                lastnote = note;
-                velocity = vel / 127.0;
-                pitch = Utils.hzToValue(440.0 * Math.pow(base, note - 69) * bend);
-                //rawVal = note + rawBend;
                 }
+            out[i] = pitch;
+            gates[i] = getGate();
+            }
+        }
 
+    // the pitch and gate only change when a message is applied
+    public Rate getRate() {
+        return rate;
+        }
 
-            }
-        return pitch;
+    /**
+     * Returns the gate at each frame of the last block rendered.
+     * The returned array is owned by the module and is only valid until the next block.
+     **/
+    public double[] getGates() {
+        return gates;
         }
 
     /*
@@ -103,6 +190,10 @@ public class MidiModule extends Module {
       }
     */
     
+    public int getNote() {
+        return lastnote;
+        }
+
     public double getBend() {
         return bend;
         }
@@ -14,9 +14,31 @@ public class Mixer3 extends Module {
     void setAmplitude2(Module a2) { this.a2 = a2; }
     void setAmplitude3(Module a3) { this.a3 = a3; }
 
+    public Module[] getInputs() { return new Module[] { i1, i2, i3, a1, a2, a3 }; }
+
     public double tick(long tickCount) {
         double v = a1.getValue() * i1.getValue() + a2.getValue() * i2.getValue() + a3.getValue() * i3.getValue();
         v *= 0.2; // headroom
         return v;
     }
+
+    public void processBlock(long startTick, int frames, double[] out) {
+        double[] b1 = i1.getBlock(startTick, frames);
+        double[] b2 = i2.getBlock(startTick, frames);
+        double[] b3 = i3.getBlock(startTick, frames);
+        double[] g1 = a1.getBlock(startTick, frames);
+        double[] g2 = a2.getBlock(startTick, frames);
+        double[] g3 = a3.getBlock(startTick, frames);
+        // the amplitudes are usually dials, which needn't be read every frame
+        if (a1.getRate() == Rate.CONSTANT && a2.getRate() == Rate.CONSTANT && a3.getRate() == Rate.CONSTANT) {
+            double c1 = g1[0], c2 = g2[0], c3 = g3[0];
+            for (int i = 0; i < frames; i++) {
+                out[i] = (c1 * b1[i] + c2 * b2[i] + c3 * b3[i]) * 0.2; // headroom
+            }
+            return;
+        }
+        for (int i = 0; i < frames; i++) {
+            out[i] = (g1[i] * b1[i] + g2[i] * b2[i] + g3[i] * b3[i]) * 0.2; // headroom
+        }
+    }
 }
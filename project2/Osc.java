@@ -2,7 +2,8 @@
  * Utility module that provides some common parameters for all modules inteded to be oscillators
  */
 public class Osc extends Module {
-    public double state = 0;
+    // the phase, in fixed point (see Phase)
+    public int state = 0;
 
     protected Module frequencyMod = new ConstantValue(Utils.hzToValue(220));
     protected Module amplitudeMod = new ConstantValue(1.0);
@@ -23,13 +24,27 @@ public class Osc extends Module {
         return this.amplitudeMod;
     }
 
+    public Module[] getInputs() {
+        return new Module[] { frequencyMod, amplitudeMod };
+    }
+
     public double tick(long tickCount) {
         double hz = Utils.valueToHz(getFrequencyMod().getValue());
-        state += hz * Config.INV_SAMPLING_RATE;
-        if (state > 1) {
-            state -= 1;
+        state += Phase.increment(hz);
+        return amplitudeMod.getValue() * (Utils.sinPhase(state) * 0.5 + 0.5);
+    }
+
+    public void processBlock(long startTick, int frames, double[] out) {
+        double[] frequency = getFrequencyMod().getBlock(startTick, frames);
+        // a held note's frequency only needs converting once
+        boolean steady = getFrequencyMod().getRate() == Rate.CONSTANT;
+        int increment = Phase.increment(Utils.valueToHz(frequency[0]));
+        Utils.Sine sine = Utils.getSine();
+        double[] amplitude = amplitudeMod.getBlock(startTick, frames);
+        for (int i = 0; i < frames; i++) {
+            state += steady ? increment : Phase.increment(Utils.valueToHz(frequency[i]));
+            out[i] = amplitude[i] * (Utils.sinPhase(state, sine) * 0.5 + 0.5);
         }
-        return amplitudeMod.getValue() * (Utils.fastSin(2 * Math.PI * state) * 0.5 + 0.5);
     }
 
 }
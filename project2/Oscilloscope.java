@@ -87,6 +87,10 @@ public class Oscilloscope extends JComponent
             return Oscilloscope.this.amplitude;
             }
 
+        public Module[] getInputs() {
+            return new Module[] { getAmplitudeModule() };
+            }
+
         public double tick(long tickCount)
             {
             lock.lock();
@@ -0,0 +1,111 @@
+import java.util.Arrays;
+
+/**
+ * A value set from outside the audio thread, such as by a Dial or Options widget.
+ * The other thread publishes values with a volatile write, and the audio thread takes
+ * a single snapshot at the start of each block, so reading a parameter never locks and
+ * every module reading it sees the same value for the whole block.
+ *
+ * A parameter may also be smoothed, so that rather than jumping to a newly published
+ * value (and making a zipper noise as a dial turns) it ramps there within the block.
+ **/
+public class Parameter extends Module {
+
+    /**
+     * How the parameter moves to a newly published value.  NONE jumps straight there;
+     * LINEAR ramps there across one block; EXPONENTIAL moves part of the remaining way
+     * every Config.CONTROL_RATE frames, ramping linearly in between.
+     **/
+    public enum Smoothing { NONE, LINEAR, EXPONENTIAL }
+
+    // how long EXPONENTIAL smoothing takes to get most (1 - 1/e) of the way to a new value
+    public static final double SMOOTHING_TIME = 0.01;
+    private static final double EXPONENTIAL_STEP = 1.0 - Math.exp(-Config.CONTROL_RATE / (SMOOTHING_TIME * Config.SAMPLING_RATE));
+    // how close EXPONENTIAL smoothing must get before it simply jumps to the value
+    private static final double EPSILON = 1.0e-6;
+
+    private volatile double published;
+    private Smoothing smoothing = Smoothing.NONE;
+    // where the audio thread's ramp stood at the end of the last block
+    private double current;
+    private Rate rate = Rate.CONSTANT;
+    // If more than 0, the parameter only takes the values 0 ... choices - 1 (see Options)
+    private int choices = 0;
+
+    public Parameter(double value) {
+        published = value;
+        current = value;
+        }
+
+    // Makes value the parameter's value from the next block on.  Safe from any thread.
+    public void publish(double value) {
+        published = value;
+        }
+
+    // Sets the value immediately, without smoothing.  Only call this before the audio thread starts.
+    public void setInitialValue(double value) {
+        published = value;
+        current = value;
+        }
+
+    // The most recently published value, which may be newer than the current block's snapshot
+    public double getPublished() {
+        return published;
+        }
+
+    public void setChoices(int choices) { this.choices = choices; }
+    public int getChoices() { return choices; }
+
+    public void setSmoothing(Smoothing smoothing) { this.smoothing = smoothing; }
+    public Smoothing getSmoothing() { return smoothing; }
+
+    // constant within a block unless it's ramping to a new value
+    public Rate getRate() {
+        return rate;
+        }
+
+    // Within a block, that block's snapshot; otherwise the latest published value
+    public double getValue() {
+        return isRendered() ? super.getValue() : published;
+        }
+
+    public double tick(long tickCount) {
+        return published;
+        }
+
+    // there is nothing to compute, and the snapshot is taken in processBlock()
+    public void doUpdate(long tickCount) { }
+
+    public void processBlock(long startTick, int frames, double[] out) {
+        double target = published;
+        if (current == target || smoothing == Smoothing.NONE) {
+            current = target;
+            Arrays.fill(out, 0, frames, target);
+            rate = Rate.CONSTANT;
+            return;
+            }
+        rate = Rate.AUDIO;
+        if (smoothing == Smoothing.LINEAR) {
+            ramp(out, 0, frames, target);
+            }
+        else {
+            for (int start = 0; start < frames; start += Config.CONTROL_RATE) {
+                double next = current + (target - current) * EXPONENTIAL_STEP;
+                if (Math.abs(target - next) < EPSILON) {
+                    next = target;
+                    }
+                ramp(out, start, Math.min(frames, start + Config.CONTROL_RATE), next);
+                }
+            }
+        }
+
+    // fills out[from] ... out[to - 1] with a line from current to value
+    private void ramp(double[] out, int from, int to, double value) {
+        double step = (value - current) / (to - from);
+        for (int i = from; i < to - 1; i++) {
+            current += step;
+            out[i] = current;
+            }
+        out[to - 1] = current = value;
+        }
+    }
@@ -0,0 +1,55 @@
+/**
+ * A phase held in an int as a fixed-point fraction of a cycle, 2^32 steps to the turn.  The
+ * int overflowing as the phase passes the end of the cycle is the wraparound, so advancing it
+ * takes no branch, and as the steps are exact it doesn't drift however many hours it runs.
+ * Read as unsigned, the top bits of a phase index a table with a power of two entries, and
+ * the bits below them are the fraction of the way to the next entry.
+ *
+ * Oscillators keep a phase in an int field and add increment(hz) to it every sample.
+ */
+public final class Phase {
+    // steps in a whole cycle
+    public static final double STEPS = 4294967296.0;
+    public static final double INV_STEPS = 1.0 / STEPS;
+    private static final double STEPS_PER_HZ = STEPS * Config.INV_SAMPLING_RATE;
+
+    private Phase() {
+    }
+
+    /**
+     * Returns how far a phase moves in a sample at hz (up to Nyquist, which is half a cycle)
+     */
+    public static int increment(double hz) {
+        // through long, as half a cycle and more don't fit in an int but do wrap into one
+        return (int) (long) (hz * STEPS_PER_HZ);
+    }
+
+    /**
+     * Returns the phase turns of a cycle from the start (any number, positive or negative)
+     */
+    public static int fromTurns(double turns) {
+        return (int) (long) (turns * STEPS);
+    }
+
+    /**
+     * Returns how far through its cycle phase is, from 0 up to 1
+     */
+    public static double toTurns(int phase) {
+        return (phase & 0xFFFFFFFFL) * INV_STEPS;
+    }
+
+    /**
+     * Returns the entry of a table of 2^bits entries a cycle long which phase falls in
+     */
+    public static int index(int phase, int bits) {
+        return phase >>> (32 - bits);
+    }
+
+    /**
+     * Returns how far phase is from the start of its entry in a table of 2^bits entries
+     * towards the next, from 0 up to 1
+     */
+    public static double fraction(int phase, int bits) {
+        return ((phase << bits) & 0xFFFFFFFFL) * INV_STEPS;
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * Saw, pulse and triangle oscillators which are band-limited by polyBLEP: the naive
+ * waveform, with a short polynomial correction in the sample either side of each jump
+ * (or, for the triangle's corners, each change of slope: polyBLAMP).  Away from the jumps
+ * each sample is a few multiplies, with no trigonometry and no integrator to drift, so
+ * they're cheap enough for big unisons and lots of voices.
+ *
+ * The pulse's width (0 to 1) comes from the phase module, as in BPBlit and BlitSquare, and
+ * may change every sample.  Any of them may be hard synced to another PolyBlep, which
+ * restarts its cycle whenever the master's begins; a synced oscillator is one sample late,
+ * so the jump the restart makes can be corrected on both sides.
+ *
+ * Like the other oscillators they output 0 to 1, averaging 0.5.
+ */
+public class PolyBlep extends Osc {
+
+    public enum Shape { SAW, PULSE, TRIANGLE }
+
+    private final Shape shape;
+    Module phaseMod = new ConstantValue(0.5);
+    private PolyBlep master = null;
+    // for each frame of the last block, how far into the frame (0 to 1) the cycle restarted, or -1
+    private final double[] restarts = new double[Config.BLOCK_SIZE];
+    // a synced oscillator's last sample, which a restart in the next one may still correct
+    private double held = 0;
+    // how far through the cycle it is, 0 to 1: kept as a fraction rather than in Osc's fixed-point
+    // state, as the corrections are worked out from fractions of a sample
+    private double cycle = 0;
+
+    public PolyBlep(Shape shape) {
+        this.shape = shape;
+    }
+
+    public Shape getShape() {
+        return shape;
+    }
+
+    public void setPhaseMod(Module phaseMod) {
+        this.phaseMod = phaseMod;
+    }
+
+    public Module getPhaseMod() {
+        return this.phaseMod;
+    }
+
+    /**
+     * Restarts this oscillator's cycle whenever master's restarts, or never if master is null
+     */
+    public void setSyncMaster(PolyBlep master) {
+        this.master = master;
+    }
+
+    public PolyBlep getSyncMaster() {
+        return master;
+    }
+
+    public Module[] getInputs() {
+        if (master != null) {
+            return new Module[] { frequencyMod, amplitudeMod, phaseMod, master };
+        }
+        return new Module[] { frequencyMod, amplitudeMod, phaseMod };
+    }
+
+    public double tick(long tickCount) {
+        double dt = Utils.valueToHz(getFrequencyMod().getValue()) * Config.INV_SAMPLING_RATE;
+        return amplitudeMod.getValue() * next(0, dt, phaseMod.getValue(), master == null ? -1 : master.restarts[0]);
+    }
+
+    public void processBlock(long startTick, int frames, double[] out) {
+        double[] frequency = getFrequencyMod().getBlock(startTick, frames);
+        double[] amplitude = amplitudeMod.getBlock(startTick, frames);
+        double[] width = phaseMod.getBlock(startTick, frames);
+        boolean steady = getFrequencyMod().getRate() == Rate.CONSTANT;
+        double dt = Utils.valueToHz(frequency[0]) * Config.INV_SAMPLING_RATE;
+        for (int i = 0; i < frames; i++) {
+            if (!steady) {
+                dt = Utils.valueToHz(frequency[i]) * Config.INV_SAMPLING_RATE;
+            }
+            out[i] = amplitude[i] * next(i, dt, width[i], master == null ? -1 : master.restarts[i]);
+        }
+    }
+
+    // Advances a sample of dt cycles and returns it, noting any restart in restarts[frame].
+    // sync is how far into the sample the master restarted, or -1.
+    private double next(int frame, double dt, double width, double sync) {
+        width = Math.min(Math.max(0, width), 1);
+        if (sync < 0) {
+            cycle += dt;
+            if (cycle >= 1) {
+                cycle -= 1;
+                restarts[frame] = cycle / dt;
+            } else {
+                restarts[frame] = -1;
+            }
+            double v = naive(cycle, width) + corrections(cycle, dt, width, true) + 0.5;
+            if (master == null) {
+                return v;
+            }
+            double last = held;
+            held = v;
+            return last;
+        }
+
+        // restart partway through the sample, where the master did
+        double before = wrap(cycle + (1 - sync) * dt);
+        cycle = sync * dt;
+        restarts[frame] = sync;
+        double step = naive(0, width) - naive(before, width);
+        // the jump is corrected in the sample before it (held back for this) and the sample after
+        double last = held + step * sync * sync * 0.5;
+        held = naive(cycle, width) + corrections(cycle, dt, width, false) - step * (1 - sync) * (1 - sync) * 0.5 + 0.5;
+        return last;
+    }
+
+    // the waveform without band-limiting, from -0.5 to 0.5 and averaging 0
+    private double naive(double t, double width) {
+        switch (shape) {
+            case SAW:
+                return t - 0.5;
+            case PULSE:
+                return (t < width ? 0.5 : -0.5) - (width - 0.5);
+            default:
+                return 2 * Math.abs(t - 0.5) - 0.5;
+        }
+    }
+
+    // the corrections for the waveform's jumps and corners near t, leaving out the one at 0 when restarting
+    private double corrections(double t, double dt, double width, boolean atZero) {
+        switch (shape) {
+            case SAW:
+                return atZero ? -blep(t, dt) : 0;
+            case PULSE:
+                return (atZero ? blep(t, dt) : 0) - blep(wrap(t - width + 1), dt);
+            default:
+                // the slope changes by 4 per cycle at each corner
+                return 4 * dt * (blamp(wrap(t + 0.5), dt) - (atZero ? blamp(t, dt) : 0));
+        }
+    }
+
+    private static double wrap(double t) {
+        return t >= 1 ? t - 1 : t;
+    }
+
+    /**
+     * What band-limiting adds to a step up of 1 at phase 0, at phase t, for a frequency of
+     * dt cycles per sample.  It's only non-zero within a sample of the step.
+     */
+    static double blep(double t, double dt) {
+        if (t < dt) {
+            double x = 1 - t / dt;
+            return -0.5 * x * x;
+        } else if (t > 1 - dt) {
+            double x = 1 + (t - 1) / dt;
+            return 0.5 * x * x;
+        }
+        return 0;
+    }
+
+    /**
+     * What band-limiting adds to a corner at phase 0 where the slope rises by 1 per sample,
+     * at phase t, for a frequency of dt cycles per sample (the integral of blep())
+     */
+    static double blamp(double t, double dt) {
+        if (t < dt) {
+            double x = 1 - t / dt;
+            return x * x * x / 6;
+        } else if (t > 1 - dt) {
+            double x = 1 + (t - 1) / dt;
+            return x * x * x / 6;
+        }
+        return 0;
+    }
+}
@@ -1,5 +1,5 @@
 public class Ramp extends Module {
-    public double state = 0;
+    public int state = 0;
 
     private Module frequencyMod = new ConstantValue(Utils.hzToValue(220));
     private Module amplitudeMod = new ConstantValue(1.0);
@@ -7,11 +7,11 @@ public class Ramp extends Module {
     public Module  getFrequencyMod() { return this.frequencyMod; }
     public void    setAmplitudeMod(Module amplitudeMod) { this.amplitudeMod = amplitudeMod; }
     public Module  getAmplitudeMod() { return this.amplitudeMod; }
+    public Module[] getInputs() { return new Module[] { frequencyMod, amplitudeMod }; }
 
     public double tick(long tickCount) {
         double hz = Utils.valueToHz(getFrequencyMod().getValue());
-        state += hz * Config.INV_SAMPLING_RATE;
-        if (state > 1) { state -= 1; }
-        return state;
+        state += Phase.increment(hz);
+        return Phase.toTurns(state);
     }
 }
@@ -0,0 +1,244 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.concurrent.locks.LockSupport;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Measures how long the synth takes to render, for finding out why the audio glitches.
+ * Every block is timed.  Every SAMPLE_EVERY blocks, Module.getBlock() times each module's
+ * processBlock() as well, less the time spent in any modules rendered from inside it (such
+ * as a VoiceAllocator's voices), and the times are added up by the module's class.  At the
+ * end of each window (a few seconds of audio) the totals are published, through JMX and,
+ * if asked, to stderr.
+ *
+ * The renderer does nothing here but add up numbers.  Only it may call addBlock(),
+ * isSampling(), begin() and end().
+ */
+public class RenderStats implements RenderStatsMBean {
+    // how often each module is timed: every block would cost more than the modules themselves
+    private static final int SAMPLE_EVERY = 16;
+    // how many modules the summary lists
+    private static final int TOP_MODULES = 5;
+    // how many classes of module are told apart; any more are lumped together
+    private static final int MAX_CLASSES = 64;
+    // how deeply modules may render other modules
+    private static final int MAX_DEPTH = 16;
+
+    private final AudioOutput output;
+    private final long windowBlocks;
+    private final double deadlineNanos;
+
+    // the slot of each class of module seen so far, and the name of the class in each slot
+    private final IdentityHashMap<Class<?>, Integer> slots = new IdentityHashMap<Class<?>, Integer>();
+    private final String[] names = new String[MAX_CLASSES];
+    private int classes = 0;
+    // for each module being timed, the time spent in modules rendered from inside it
+    private final long[] nested = new long[MAX_DEPTH];
+    private int depth = 0;
+
+    // the current window, owned by the renderer
+    private long blocks = 0;
+    private long windowCount = 0;
+    private long windowNanos = 0;
+    private long windowMax = 0;
+    private final long[] moduleNanos = new long[MAX_CLASSES];
+
+    // the last complete window, published when windows changes
+    private volatile long windows = 0;
+    private volatile long totalBlocks = 0;
+    private volatile long overruns = 0;
+    private double averageNanos = 0;
+    private double maxNanos = 0;
+    private int publishedClasses = 0;
+    private final long[] publishedModuleNanos = new long[MAX_CLASSES];
+
+    private volatile Thread reporter;
+
+    /**
+     * Watches the renderer feeding output (which may be null), publishing every windowSeconds of audio
+     */
+    public RenderStats(AudioOutput output, double windowSeconds) {
+        this.output = output;
+        this.deadlineNanos = Config.BLOCK_SIZE * 1.0e9 / Config.SAMPLING_RATE;
+        this.windowBlocks = Math.max(1, (long) (windowSeconds * Config.SAMPLING_RATE / Config.BLOCK_SIZE));
+        names[MAX_CLASSES - 1] = "(others)";
+    }
+
+    /**
+     * Makes the statistics available through JMX
+     */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("Synth:type=RenderStats"));
+        } catch (JMException ex) {
+            System.err.println("Could not register render statistics with JMX: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Prints a summary to stderr at the end of every window, from a thread of its own
+     */
+    public void startReporting() {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                long printed = 0;
+                while (true) {
+                    LockSupport.park(this);
+                    if (windows != printed) {
+                        printed = windows;
+                        System.err.println(getSummary());
+                    }
+                }
+            }
+        }, "Render Stats");
+        thread.setDaemon(true);
+        reporter = thread;
+        thread.start();
+    }
+
+    /**
+     * Returns true if the block about to be rendered should time each module
+     */
+    public boolean isSampling() {
+        return blocks % SAMPLE_EVERY == 0;
+    }
+
+    /**
+     * Starts timing a module, returning the time to hand to end()
+     */
+    public long begin() {
+        depth++;
+        if (depth < MAX_DEPTH) {
+            nested[depth] = 0;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Charges module's class with the time since begin() returned start, less any time
+     * charged to modules in between
+     */
+    public void end(Module module, long start) {
+        long nanos = System.nanoTime() - start;
+        long own = depth < MAX_DEPTH ? nanos - nested[depth] : nanos;
+        depth--;
+        if (depth < MAX_DEPTH) {
+            nested[depth] += nanos;
+        }
+        moduleNanos[slotOf(module.getClass())] += own;
+    }
+
+    private int slotOf(Class<?> c) {
+        Integer slot = slots.get(c);
+        if (slot == null) {
+            // the first time this class is seen: the last slot takes everything which doesn't fit
+            slot = Math.min(classes, MAX_CLASSES - 1);
+            if (classes < MAX_CLASSES - 1) {
+                names[classes++] = c.getName();
+            }
+            slots.put(c, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Adds the time taken to render a whole block
+     */
+    public void addBlock(long nanos) {
+        blocks++;
+        windowCount++;
+        windowNanos += nanos;
+        if (nanos > windowMax) {
+            windowMax = nanos;
+        }
+        if (nanos > deadlineNanos) {
+            overruns++;
+        }
+        if (windowCount == windowBlocks) {
+            publish();
+        }
+    }
+
+    private void publish() {
+        averageNanos = windowNanos / (double) windowCount;
+        maxNanos = windowMax;
+        System.arraycopy(moduleNanos, 0, publishedModuleNanos, 0, moduleNanos.length);
+        publishedClasses = classes;
+        Arrays.fill(moduleNanos, 0);
+        windowCount = 0;
+        windowNanos = 0;
+        windowMax = 0;
+        totalBlocks = blocks;
+        windows++;                  // publishes everything above
+        LockSupport.unpark(reporter);
+    }
+
+    public long getBlocks() {
+        return totalBlocks;
+    }
+
+    public double getAverageBlockMicros() {
+        return windows == 0 ? 0 : averageNanos / 1000.0;
+    }
+
+    public double getMaxBlockMicros() {
+        return windows == 0 ? 0 : maxNanos / 1000.0;
+    }
+
+    public double getDeadlineUsage() {
+        return windows == 0 ? 0 : 100.0 * averageNanos / deadlineNanos;
+    }
+
+    public double getPeakDeadlineUsage() {
+        return windows == 0 ? 0 : 100.0 * maxNanos / deadlineNanos;
+    }
+
+    public long getOverruns() {
+        return overruns;
+    }
+
+    public long getUnderruns() {
+        return output == null ? 0 : output.getUnderruns();
+    }
+
+    public String[] getModuleCosts() {
+        if (windows == 0) {
+            return new String[0];
+        }
+        final long[] nanos = publishedModuleNanos.clone();
+        long total = 0;
+        ArrayList<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < nanos.length; i++) {
+            total += nanos[i];
+            if (nanos[i] > 0 && (i < publishedClasses || i == MAX_CLASSES - 1)) {
+                order.add(i);
+            }
+        }
+        order.sort(new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(nanos[b], nanos[a]);
+            }
+        });
+        String[] costs = new String[order.size()];
+        for (int i = 0; i < costs.length; i++) {
+            int slot = order.get(i);
+            costs[i] = String.format("%s %.1f%%", names[slot], 100.0 * nanos[slot] / total);
+        }
+        return costs;
+    }
+
+    public String getSummary() {
+        String[] costs = getModuleCosts();
+        StringBuilder modules = new StringBuilder();
+        for (int i = 0; i < Math.min(TOP_MODULES, costs.length); i++) {
+            modules.append(i == 0 ? "" : ", ").append(costs[i]);
+        }
+        return String.format("Render: %.1f us per block (%.1f%% of deadline), peak %.1f us (%.1f%%), %d overruns, %d underruns; %s",
+                             getAverageBlockMicros(), getDeadlineUsage(), getMaxBlockMicros(), getPeakDeadlineUsage(),
+                             getOverruns(), getUnderruns(), modules);
+    }
+}
@@ -1,10 +1,16 @@
 // Copyright 2018 by George Mason University
 
 
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.ShortMessage;
 import javax.sound.sampled.*;
 import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
+import java.awt.*;
 
 /**
  * DO NOT EDIT THIS SECTION BELOW (SEE BOTTOM OF FILES FOR WHERE TO UPDATE)
@@ -13,12 +19,6 @@ import java.util.Random;
  **/
 public class Synth {
 
-    /**
-     * Size of the Java SourceDataLine audio buffer.
-     * Larger and we have more latency.  Smaller and the system can't handle it.
-     * It appears &geq 1024 is required on the Mac for 44100 KHz
-     */
-    public static final int BATCH_SIZE = 32;
     private Midi midi;
     // The current Mixer
     private Mixer.Info mixer;
@@ -26,10 +26,18 @@ public class Synth {
     private AudioFormat audioFormat;
     // The audio output
     private SourceDataLine sdl;
+    // Converts rendered blocks into the audio output's format
+    private PcmConverter converter;
     // current write position in buffer
     private int buffpos = 0;
-    // Audio buffer, which the audio output drains.
-    private byte[] audioBuffer = new byte[BATCH_SIZE];
+    // The period of the output ring being filled
+    private byte[] audioBuffer;
+    // Drains the ring into the audio output on its own thread
+    private AudioOutput output;
+    // MIDI controllers bound to the patch's parameters
+    private ControlSurface controlSurface = new ControlSurface();
+    // A MIDI file to play through the patch in realtime instead of a device, if any (see runPlay())
+    private MidiFile sequence = null;
     /*
        Random Number Generation
 
@@ -39,8 +47,13 @@ public class Synth {
     private Object randomLock = new Object[0];
     private long randomSeed;
     private Random rnd = getNewRandom();
+    // modules added by setup(); compile() reports any which the output never reads
     private ArrayList<Module> modules = new ArrayList<Module>();
+    // modules which read the patch without feeding the output, such as oscilloscopes
+    private ArrayList<Module> monitors = new ArrayList<Module>();
     private Module outputModule = null;
+    // every module the output and monitors depend on, each after its inputs (see ModuleGraph)
+    private Module[] plan = new Module[0];
     // Global tickcount
     private long tickCount = 0;
 
@@ -56,6 +69,10 @@ public class Synth {
         return outputModule;
     }
 
+    public void addMonitor(Module monitor) {
+        monitors.add(monitor);
+    }
+
     public void setMidi(Midi midi) {
         this.midi = midi;
     }
@@ -64,6 +81,14 @@ public class Synth {
         return midi;
     }
 
+    public ControlSurface getControlSurface() {
+        return controlSurface;
+    }
+
+    public void setSequence(MidiFile sequence) {
+        this.sequence = sequence;
+    }
+
 
     public static int getInt(String s) {
         try {
@@ -79,10 +104,27 @@ public class Synth {
         for (int i = 0; i < mixers.length; i++)
             System.err.println("" + i + ":\t" + mixers[i].getName());
 
-        System.err.println("\nFormat:\n\tjava Synth\t\t\t[displays available devices]\n\tjava Synth [midi] [audio]\t[runs synth with the given device numbers]");
+        System.err.println("\nFormat:\n\tjava Synth\t\t\t[displays available devices]\n\tjava Synth [midi] [audio]\t[runs synth with the given device numbers]" +
+                           "\n\tjava Synth render [midi file] [wav file] [seconds] [16|24|32]\t[renders the midi file offline]" +
+                           "\n\tjava Synth play [midi file] [audio]\t[plays the midi file in realtime on the given device]" +
+                           "\n\tjava Synth warmup\t\t[warms up the patch and exits, for making a class data sharing archive]");
     }
 
     public static void main(String[] args) {
+        setUpTuning();
+        Utils.setSine(sine);
+        if (args.length >= 4 && args[0].equals("render")) {
+            runRender(args);
+            return;
+        }
+        if (args.length == 1 && args[0].equals("warmup")) {
+            runWarmup();
+            return;
+        }
+        if (args.length == 3 && args[0].equals("play")) {
+            runPlay(args);
+            return;
+        }
         Midi midi = new Midi();
         Synth synth = new Synth();
         synth.audioFormat = new AudioFormat(Config.SAMPLING_RATE, 16, 1, true, false);
@@ -94,8 +136,7 @@ public class Synth {
             int x = getInt(args[0]);
             ArrayList<Midi.MidiDeviceWrapper> in = midi.getInDevices();
             if (x >= 0 && x < in.size()) {
-                midi.setInDevice(in.get(x));
-                System.err.println("MIDI: " + in.get(x));
+                Midi.MidiDeviceWrapper device = in.get(x);
 
                 if (mixers == null) {
                     System.err.println("No output found which supports the desired sampling rate and bit depth\n");
@@ -104,10 +145,17 @@ public class Synth {
                 } else {
                     x = getInt(args[1]);
                     if (x >= 0 && x < mixers.length) {
-                        synth.setMixer(mixers[x]);
-                        System.err.println("Audio: " + mixers[x].getName());
                         synth.setMidi(midi);
                         synth.setup();
+                        // Play the patch silently until the JIT has compiled it, then open the
+                        // devices.  Warmup queues its notes on midi, which must have no device
+                        // feeding it meanwhile: the queue takes events from one thread only.
+                        synth.warmup();
+                        midi.setInDevice(device);
+                        System.err.println("MIDI: " + device);
+                        synth.setMixer(mixers[x]);
+                        System.err.println("Audio: " + mixers[x].getName());
+                        System.err.println("Format: " + synth.audioFormat);
                         synth.go();
                         synth.sdl.drain();
                         synth.sdl.close();
@@ -129,6 +177,100 @@ public class Synth {
         }
     }
 
+    /**
+     * Renders a MIDI file through the patch into a WAV file, as fast as the CPU allows.
+     * No window or audio device is needed, so this works on headless servers.
+     */
+    public static void runRender(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        double seconds;
+        try {
+            seconds = Double.parseDouble(args[3]);
+        } catch (NumberFormatException ex) {
+            seconds = -1;
+        }
+        int bits = (args.length > 4 ? getInt(args[4]) : 16);
+        if (seconds <= 0 || (bits != 16 && bits != 24 && bits != 32)) {
+            System.err.println("Format:\n\tjava Synth render [midi file] [wav file] [seconds] [16|24|32]");
+            System.exit(1);
+        }
+        try {
+            MidiFile file = new MidiFile(new File(args[1]));
+            WavWriter out = new WavWriter(new File(args[2]), bits);
+            Synth synth = new Synth();
+            synth.setMidi(new Midi());
+            synth.setup();
+            synth.render(file, out, (long) (seconds * Config.SAMPLING_RATE));
+        } catch (IOException | InvalidMidiDataException ex) {
+            System.err.println("Could not render: " + ex.getMessage());
+            System.exit(1);
+        }
+        // the controls' timers would otherwise keep us running
+        System.exit(0);
+    }
+
+    /**
+     * Plays a MIDI file through the patch in realtime on an audio device, then exits
+     */
+    public static void runPlay(String[] args) {
+        Synth synth = new Synth();
+        synth.audioFormat = new AudioFormat(Config.SAMPLING_RATE, 16, 1, true, false);
+        Mixer.Info[] mixers = synth.getSupportedMixers();
+        int x = getInt(args[2]);
+        if (mixers == null || x < 0 || x >= mixers.length) {
+            System.err.println("Invalid Audio number " + args[2] + "\n");
+            showDevices(new Midi(), mixers == null ? new Mixer.Info[0] : mixers);
+            System.exit(1);
+        }
+        try {
+            synth.setSequence(new MidiFile(new File(args[1])));
+        } catch (IOException | InvalidMidiDataException ex) {
+            System.err.println("Could not read " + args[1] + ": " + ex.getMessage());
+            System.exit(1);
+        }
+        synth.setMidi(new Midi());
+        synth.setup();
+        synth.warmup();
+        synth.setMixer(mixers[x]);
+        System.err.println("Audio: " + mixers[x].getName());
+        System.err.println("Format: " + synth.audioFormat);
+        synth.go();
+        synth.sdl.drain();
+        synth.sdl.close();
+        // the controls' timers would otherwise keep us running
+        System.exit(0);
+    }
+
+    /**
+     * Sets the tuning every MidiModule starts with, from tuningFile and bendRange
+     */
+    static void setUpTuning() {
+        double[] frequencies = Tuning.equalTemperament(440.0);
+        if (tuningFile != null) {
+            try {
+                frequencies = Tuning.readScala(new File(tuningFile));
+                System.err.println("Tuning: " + tuningFile);
+            } catch (IOException ex) {
+                System.err.println("Could not read tuning, using equal temperament: " + ex.getMessage());
+            }
+        }
+        Tuning.setDefault(new Tuning(frequencies, bendRange));
+    }
+
+    /**
+     * Builds the patch and warms it up without a window or audio device, then exits.  Run with
+     * -XX:ArchiveClassesAtExit to record the classes the synth loads (see "make cds").
+     */
+    public static void runWarmup() {
+        System.setProperty("java.awt.headless", "true");
+        Synth synth = new Synth();
+        synth.setMidi(new Midi());
+        synth.setup();
+        synth.warmup();
+        // the controls' timers would otherwise keep us running
+        System.exit(0);
+    }
+
     /**
      * Returns the currently used Mixer
      */
@@ -148,11 +290,13 @@ public class Synth {
                 if (m.length > 0)
                     mixer = m[0];
             }
+            converter = new PcmConverter(chooseFormat(mixer));
+            audioFormat = converter.getFormat().getAudioFormat();
             if (mixer == null)
                 sdl = AudioSystem.getSourceDataLine(audioFormat);
             else
                 sdl = AudioSystem.getSourceDataLine(audioFormat, mixer);
-            sdl.open(audioFormat, bufferSize);
+            sdl.open(audioFormat, numSamples * converter.getFormat().getBytes());
             sdl.start();
             this.mixer = mixer;
         } catch (LineUnavailableException ex) {
@@ -184,6 +328,22 @@ public class Synth {
         return options;
     }
 
+    /**
+     * Returns the most precise format the mixer (or the default audio output, if null) can play,
+     * or the one asked for by bitDepth
+     */
+    private PcmConverter.Format chooseFormat(Mixer.Info mixer) {
+        for (PcmConverter.Format format : PcmConverter.Format.values()) {
+            DataLine.Info lineInfo = new DataLine.Info(SourceDataLine.class, format.getAudioFormat());
+            boolean supported = (mixer == null ? AudioSystem.isLineSupported(lineInfo)
+                                 : AudioSystem.getMixer(mixer).isLineSupported(lineInfo));
+            if (supported && (bitDepth == 0 || bitDepth == format.getBits())) {
+                return format;
+            }
+        }
+        return PcmConverter.Format.PCM_16;
+    }
+
     Random getNewRandom() {
         synchronized (randomLock) {
             randomSeed += 10729347;  // or whatever
@@ -192,26 +352,148 @@ public class Synth {
     }
 
     /**
-     * Sample ranges from 0 to 1
+     * Converts the first count samples of block, which range from 0 to 1, into the audio output
      */
-    public void emitSample(double d) {
-        int val = 0;
-        if (d > 1.0) d = 1.0;
-        if (d < 0.0) d = 0.0;
+    public void emitBlock(double[] block, int count) {
+        int from = 0;
+        while (from < count) {
+            int n = Math.min(count - from, (audioBuffer.length - buffpos) / converter.getFormat().getBytes());
+            buffpos += converter.convert(block, from, n, audioBuffer, buffpos);
+            from += n;
+            if (buffpos == audioBuffer.length) {
+                output.publish();
+                audioBuffer = output.acquire();
+                buffpos = 0;
+            }
+        }
+    }
 
+    /**
+     * Orders the patch from the output module and monitors, dropping anything they don't depend on
+     */
+    public void compile() {
+        plan = ModuleGraph.compile(outputModule, monitors);
+        for (Module m : ModuleGraph.unreachable(modules, plan)) {
+            System.err.println("Not connected to the output, skipping: " + m.getClass().getName());
+        }
+    }
 
-        if (tickCount >= Config.SAMPLING_RATE * 3) {
-            val = (int) (d * 65535);
-        } else {
-            val = (int) (d * 0.0001 * 65535);
+    /**
+     * Renders the given number of ticks without an audio line, playing file into the patch
+     * and writing the output to out, then reports how much faster than realtime that was.
+     */
+    public void render(MidiFile file, WavWriter out, long ticks) throws IOException {
+        if (this.outputModule == null) {
+            System.err.println("No output module defined: exiting");
+            return;
+        }
+        compile();
+        file.rewind(tickCount);
+        long start = System.nanoTime();
+        while (tickCount < ticks) {
+            file.play(this.midi, tickCount + Config.BLOCK_SIZE);
+            int frames = (int) Math.min(Config.BLOCK_SIZE, ticks - tickCount);
+            out.write(renderBlock(), frames);
+        }
+        out.close();
+        double elapsed = (System.nanoTime() - start) / 1.0e9;
+        double seconds = ticks / (double) Config.SAMPLING_RATE;
+        System.err.printf("Rendered %.2f seconds in %.2f seconds (%.1fx realtime)%n", seconds, elapsed, seconds / elapsed);
+    }
+
+    /**
+     * Shows the controls in a window, unless there is no display (such as when rendering offline)
+     */
+    public void showWindow(String title, JComponent controls) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return;
+        }
+        JFrame frame = new JFrame(title);
+        frame.add(controls);
+        frame.pack();
+        frame.setVisible(true);
+    }
+
+    /**
+     * Plays the patch offline for warmupSeconds, so that the JIT has compiled it before
+     * anything is heard.  Every phase plays more notes than there are voices, bends them and
+     * releases them, with every option set to its next choice and every dial to another
+     * position.  Afterwards the controls are put back and the patch is left to fall silent.
+     * The notes are queued on the patch's Midi, so call this before opening its input device.
+     */
+    public void warmup() {
+        if (this.outputModule == null) {
+            return;
+        }
+        compile();
+        ArrayList<Parameter> controls = new ArrayList<Parameter>();
+        for (Module m : this.plan) {
+            addControl(m, controls);
+            if (m instanceof VoiceAllocator) {
+                for (Module v : ((VoiceAllocator) m).getVoiceModules()) {
+                    addControl(v, controls);
+                }
+            }
+        }
+        double[] saved = new double[controls.size()];
+        for (int i = 0; i < saved.length; i++) {
+            saved[i] = controls.get(i).getPublished();
+        }
+
+        System.out.println("WARMING UP...");
+        long phaseTicks = (long) (Config.SAMPLING_RATE / 4);
+        long startTick = tickCount;
+        long start = System.nanoTime();
+        long end = start + (long) (warmupSeconds * 1.0e9);
+        for (int phase = 0; System.nanoTime() < end; phase++) {
+            for (int i = 0; i < saved.length; i++) {
+                int choices = controls.get(i).getChoices();
+                controls.get(i).publish(choices > 0 ? (phase + i) % choices : ((phase + i) % 5) / 4.0);
+            }
+            if (this.midi != null) {
+                long at = tickCount;
+                for (int n = 0; n <= numVoices; n++) {
+                    this.midi.schedule(ShortMessage.NOTE_ON, 36 + (phase * 7 + n * 5) % 60, 100, at + n);
+                }
+                this.midi.schedule(ShortMessage.PITCH_BEND, 0, (phase % 2) * 127, at + phaseTicks / 4);
+                for (int n = 0; n <= numVoices; n++) {
+                    this.midi.schedule(ShortMessage.NOTE_OFF, 36 + (phase * 7 + n * 5) % 60, 0, at + phaseTicks / 2 + n);
+                }
+            }
+            for (long until = tickCount + phaseTicks; tickCount < until; ) {
+                renderBlock();
+            }
         }
 
-        audioBuffer[buffpos] = (byte) (val & 255);
-        audioBuffer[buffpos + 1] = (byte) ((val >> 8) & 255);
-        buffpos += 2;
-        if (buffpos + 1 >= BATCH_SIZE) {
-            sdl.write(audioBuffer, 0, buffpos);
-            buffpos = 0;
+        // Put everything back and let the last notes die away.  A block is rendered between two
+        // restores, so a module which acts on a change of control sees the restored value (as
+        // Hammond does, setting the drawbars from the PRESETS option) and whatever it sets is
+        // then put back too.
+        restoreControls(controls, saved);
+        renderBlock();
+        restoreControls(controls, saved);
+        if (this.midi != null) {
+            this.midi.schedule(ShortMessage.PITCH_BEND, 0, Utils.isUnix() ? 0 : 64, tickCount);
+        }
+        long until = tickCount + (long) (Config.SAMPLING_RATE * 10);
+        do {
+            renderBlock();
+        } while (countVoices() > 0 && tickCount < until);
+        System.out.printf("Warmed up on %.1f seconds of audio in %.1f seconds%n",
+                          (tickCount - startTick) / (double) Config.SAMPLING_RATE, (System.nanoTime() - start) / 1.0e9);
+    }
+
+    // sets each control to its saved value, and moves its widget (if it has one) to match
+    private void restoreControls(ArrayList<Parameter> controls, double[] saved) {
+        for (int i = 0; i < saved.length; i++) {
+            controls.get(i).setInitialValue(saved[i]);
+            controls.get(i).setValue(saved[i]);
+        }
+    }
+
+    private void addControl(Module m, ArrayList<Parameter> controls) {
+        if (m instanceof Parameter && !controls.contains(m)) {
+            controls.add((Parameter) m);
         }
     }
 
@@ -220,14 +502,138 @@ public class Synth {
             System.err.println("No output module defined: exiting");
             return;
         }
-        System.out.println("NO AUDIO FOR THE FIRST 3 SECONDS WHILE THE JIT KICKS IN!");
+        if (this.plan.length == 0) {
+            compile();
+        }
+        output = new AudioOutput(sdl, periodSize, periods, converter.getFormat().getBytes(), tickCount);
+        audioBuffer = output.acquire();
+        output.start();
+        RenderStats stats = new RenderStats(output, Math.max(statsSeconds, 1));
+        stats.register();
+        Module.stats = stats;
+        if (statsSeconds > 0) {
+            stats.startReporting();
+        }
+        // parameters not registered by setup() are named after their class (dial1, dial2...)
+        controlSurface.registerAll(Arrays.asList(this.plan));
+        for (Module m : this.plan) {
+            if (m instanceof VoiceAllocator) {
+                controlSurface.registerAll(((VoiceAllocator) m).getVoiceModules());
+            }
+        }
+        controlSurface.register();
+        controlSurface.setFile(new File(controlsFile));
+        if (this.midi != null) {
+            this.midi.setControlSurface(controlSurface);
+        }
+        LatencyMonitor latency = new LatencyMonitor(sdl, tickCount);
+        latency.register();
+        latency.printOnExit();
+        for (Module m : this.plan) {
+            if (m instanceof VoiceAllocator) {
+                ((VoiceAllocator) m).setLatencyMonitor(latency);
+            }
+        }
+        if (this.sequence != null) {
+            this.sequence.rewind(tickCount);
+        }
         while (true) {
-            for (Module m : this.modules) {
-                m.doUpdate(tickCount);
+            // tell Midi where the sample clock is, so it can schedule incoming events
+            if (this.midi != null) {
+                output.setClock(this.midi);
+            }
+            // a sequence plays until its last note has died away
+            if (this.sequence != null) {
+                if (this.sequence.isFinished() && countVoices() == 0) {
+                    break;
+                }
+                this.sequence.play(this.midi, tickCount + Config.BLOCK_SIZE);
             }
-            emitSample(this.outputModule.getValue());
-            tickCount++;
+            long start = System.nanoTime();
+            double[] block = renderBlock();
+            stats.addBlock(System.nanoTime() - start);
+            emitBlock(block, Config.BLOCK_SIZE);
+        }
+        // pad the last period with silence and let the line play everything out
+        double[] silence = new double[Config.BLOCK_SIZE];
+        Arrays.fill(silence, Config.SILENCE);
+        while (buffpos > 0) {
+            emitBlock(silence, Config.BLOCK_SIZE);
         }
+        output.drain();
+    }
+
+    /**
+     * Renders the next Config.BLOCK_SIZE frames of the patch, every module filling a block
+     * per pass, and returns the output module's block, which is only valid until the next one.
+     */
+    double[] renderBlock() {
+        SynthEvents.RenderBlock event = SynthEvents.RENDER_BLOCK.isEnabled() ? new SynthEvents.RenderBlock() : null;
+        if (event != null) {
+            event.begin();
+        }
+        for (Module m : this.plan) {
+            m.getBlock(tickCount, Config.BLOCK_SIZE);
+        }
+        double[] block = this.outputModule.getBlock(tickCount, Config.BLOCK_SIZE);
+        if (event != null) {
+            event.end();
+        }
+        if (event != null && event.shouldCommit()) {
+            event.startTick = tickCount;
+            event.frames = Config.BLOCK_SIZE;
+            event.voices = countVoices();
+            event.commit();
+        }
+        tickCount += Config.BLOCK_SIZE;
+        return block;
+    }
+
+    /**
+     * Returns how many voices are sounding in the patch's voice allocators
+     */
+    private int countVoices() {
+        int voices = 0;
+        for (Module m : this.plan) {
+            if (m instanceof VoiceAllocator) {
+                voices += ((VoiceAllocator) m).getActiveVoices();
+            }
+        }
+        return voices;
+    }
+
+    /**
+     * Returns a new square wave oscillator of the kind the oscillators setting asks for
+     */
+    Osc newSquare() {
+        if (oscillators.equals("wavetable")) {
+            return new WavetablePulse();
+        }
+        if (oscillators.equals("polyblep")) {
+            return new PolyBlep(PolyBlep.Shape.PULSE);
+        }
+        BlitSquare square = new BlitSquare();
+        if (oscillators.equals("blit-exact")) {
+            square.setKernel(Blit.Kernel.CLOSED_FORM);
+        }
+        return square;
+    }
+
+    /**
+     * Returns a new sawtooth oscillator of the kind the oscillators setting asks for
+     */
+    Osc newSaw() {
+        if (oscillators.equals("wavetable")) {
+            return new WavetableOsc(Wavetable.getSaw());
+        }
+        if (oscillators.equals("polyblep")) {
+            return new PolyBlep(PolyBlep.Shape.SAW);
+        }
+        BlitSaw saw = new BlitSaw();
+        if (oscillators.equals("blit-exact")) {
+            saw.setKernel(Blit.Kernel.CLOSED_FORM);
+        }
+        return saw;
     }
 
     /**
@@ -240,8 +646,40 @@ public class Synth {
     // ADJUST THIS VALUE IF YOU GET A LOT OF GLITCHY SOUND
     private static int numSamples = 1024;
 
-    // DON'T ADJUST THIS VALUE
-    private static int bufferSize = numSamples * 2;
+    // OUTPUT BIT DEPTH: 16, 24, OR 32 (FLOAT), OR 0 FOR THE BEST YOUR AUDIO DEVICE SUPPORTS
+    private static int bitDepth = 0;
+
+    // HOW MANY FRAMES GO TO THE AUDIO OUTPUT AT ONCE, AND HOW MANY OF THESE
+    // THE SYNTH MAY RENDER AHEAD OF IT.  MORE IS SAFER BUT ADDS LATENCY
+    private static int periodSize = 256;
+    private static int periods = 4;
+
+    // HOW OFTEN, IN SECONDS, TO PRINT HOW HARD THE SYNTH IS WORKING (0 FOR NEVER)
+    private static int statsSeconds = 10;
+
+    // HOW MANY SECONDS TO SPEND PLAYING THE PATCH SILENTLY, SO THE JIT CAN COMPILE IT, BEFORE WE START
+    private static double warmupSeconds = 2.0;
+
+    // WHERE TO KEEP WHICH MIDI CONTROLLERS TURN WHICH PARAMETERS (SEE ControlSurface)
+    private static String controlsFile = "controls.properties";
+
+    // HOW MANY SEMITONES THE PITCH BEND WHEEL MOVES NOTES EITHER WAY
+    private static double bendRange = 24;
+
+    // A SCALA (.scl) SCALE FILE TO TUNE TO, OR null FOR EQUAL TEMPERAMENT
+    private static String tuningFile = null;
+
+    // HOW SINE OSCILLATORS WORK OUT THEIR SINES (SEE Utils.Sine): LINEAR, OR CUBIC OR POLYNOMIAL
+    // FOR LESS DISTORTION AT SOME COST IN SPEED
+    private static Utils.Sine sine = Utils.Sine.LINEAR;
+
+    // HOW THE OSCILLATORS ARE MADE: "blit", OR "wavetable" OR "polyblep" FOR THE SAME WAVES AT A FRACTION
+    // OF THE CPU (POLYBLEP IS A LITTLE LESS CLEAN IN THE TOP OCTAVES, BUT NEEDS NO TABLES), OR
+    // "blit-exact" FOR THE BLITS AS THEY SOUNDED BEFORE THEY READ THEIR IMPULSES FROM A TABLE
+    private static String oscillators = "blit";
+
+    // HOW MANY NOTES CAN SOUND AT ONCE
+    private static int numVoices = 8;
 
     /**
      * MAKE YOUR EDITS TO THIS METHOD
@@ -255,7 +693,7 @@ public class Synth {
         // filter adsr - 4 dials
         // amplitude adsr - 4 dials
 
-        JFrame frame   = new JFrame("Project 2");
+        JPanel panel   = new JPanel(new BorderLayout());
         Box box        = new Box(BoxLayout.X_AXIS);
 
         Box boxOscil   = new Box(BoxLayout.Y_AXIS);
@@ -269,7 +707,7 @@ public class Synth {
         Dial squareAmp = new Dial(1.0);
         boxSquare.add(squareAmp);
         boxSquare.add(boxSquare.createGlue());
-        frame.add(boxSquare);
+        panel.add(boxSquare);
 
         Box boxSaw     = new Box(BoxLayout.Y_AXIS);
         boxSaw.add(new JLabel("  blit saw  "));
@@ -277,7 +715,7 @@ public class Synth {
         Dial sawAmp    = new Dial(1.0);
         boxSaw.add(sawAmp);
         boxSaw.add(boxSaw.createGlue());
-        frame.add(boxSaw);
+        panel.add(boxSaw);
 
         Box boxFilter = new Box(BoxLayout.Y_AXIS);
         boxFilter.add(new JLabel("  filter adsr  "));
@@ -290,7 +728,7 @@ public class Synth {
         boxFilter.add(filterADSRSustain);
         boxFilter.add(filterADSRRelease);
         boxFilter.add(boxFilter.createGlue());
-        frame.add(boxFilter);
+        panel.add(boxFilter);
 
         Box boxAmp          = new Box(BoxLayout.Y_AXIS);
         boxAmp.add(new JLabel("  amp ADSR  "));
@@ -303,7 +741,7 @@ public class Synth {
         boxAmp.add(ampADSRSustain);
         boxAmp.add(ampADSRRelease);
         boxAmp.add(boxAmp.createGlue());
-        frame.add(boxAmp);
+        panel.add(boxAmp);
 
 
         box.add(boxSquare);
@@ -312,66 +750,60 @@ public class Synth {
         box.add(boxAmp);
         box.add(boxOscil);
         box.add(box.createGlue());
-        frame.add(box);
-
-        frame.pack();
-        frame.setVisible(true);
-
-        // create a midi listening module
-        MidiModule midiFrequencyMod = new MidiModule(getMidi());
-        modules.add(midiFrequencyMod);
-
-        // get a midi note gate
-        MidiGate midiNoteOnGateMod = new MidiGate(midiFrequencyMod);
-        modules.add(midiNoteOnGateMod);
-
-        // create an amplitude adsr
-        ADSR adsr = new ADSR(midiNoteOnGateMod);
-        adsr.setAttackModule(ampADSRAttack.getModule());
-        adsr.setDecayModule(ampADSRDecay.getModule());
-        adsr.setSustainModule(ampADSRSustain.getModule());
-        adsr.setReleaseModule(ampADSRRelease.getModule());
-        modules.add(adsr);
-
-        // create an filter adsr
-        ADSR filterADSR = new ADSR(midiNoteOnGateMod);
-        filterADSR.setAttackModule(filterADSRAttack.getModule());
-        filterADSR.setDecayModule(filterADSRDecay.getModule());
-        filterADSR.setSustainModule(filterADSRSustain.getModule());
-        filterADSR.setReleaseModule(filterADSRRelease.getModule());
-        modules.add(filterADSR);
-
-        // create osc1 & osc2
-        BlitSquare osc1 = new BlitSquare();
-        osc1.setFrequencyMod(midiFrequencyMod);
-        BlitSaw osc2 = new BlitSaw();
-        osc2.setFrequencyMod(midiFrequencyMod);
-        modules.add(osc1);
-        modules.add(osc2);
-
-        // add them together in a mixer
-        Mixer3 mixer = new Mixer3();
-        mixer.setInput1(osc1);
-        mixer.setInput2(osc2);
-        mixer.setAmplitude1(squareAmp.getModule());
-        mixer.setAmplitude2(sawAmp.getModule());
-        modules.add(mixer);
-
-        // set up the filter adsr
-        LPF filter = new LPF(mixer, filterADSR, new ConstantValue(0.9));
-        modules.add(filter);
-
-        // set up the amplitude adsr
-        Amplifier amp = new Amplifier(mixer);
-        amp.setAmplitudeMod(adsr);
-        modules.add(amp);
+        panel.add(box);
+
+        showWindow("Project 2", panel);
+
+        // each voice is square + saw through a mixer, filter and amplitude envelope, played by its own midi module
+        VoiceAllocator voices = new VoiceAllocator(getMidi(), numVoices, new VoiceAllocator.VoiceBuilder() {
+            public VoiceAllocator.Voice build(MidiModule midiFrequencyMod) {
+                // get a midi note gate
+                MidiGate midiNoteOnGateMod = new MidiGate(midiFrequencyMod);
+
+                // create an amplitude adsr
+                ADSR adsr = new ADSR(midiNoteOnGateMod);
+                adsr.setAttackModule(ampADSRAttack.getModule());
+                adsr.setDecayModule(ampADSRDecay.getModule());
+                adsr.setSustainModule(ampADSRSustain.getModule());
+                adsr.setReleaseModule(ampADSRRelease.getModule());
+
+                // create an filter adsr
+                ADSR filterADSR = new ADSR(midiNoteOnGateMod);
+                filterADSR.setAttackModule(filterADSRAttack.getModule());
+                filterADSR.setDecayModule(filterADSRDecay.getModule());
+                filterADSR.setSustainModule(filterADSRSustain.getModule());
+                filterADSR.setReleaseModule(filterADSRRelease.getModule());
+
+                // create osc1 & osc2
+                Osc osc1 = newSquare();
+                osc1.setFrequencyMod(midiFrequencyMod);
+                Osc osc2 = newSaw();
+                osc2.setFrequencyMod(midiFrequencyMod);
+
+                // add them together in a mixer
+                Mixer3 mixer = new Mixer3();
+                mixer.setInput1(osc1);
+                mixer.setInput2(osc2);
+                mixer.setAmplitude1(squareAmp.getModule());
+                mixer.setAmplitude2(sawAmp.getModule());
+
+                // set up the filter adsr
+                LPF filter = new LPF(mixer, filterADSR, new ConstantValue(0.9));
+
+                // set up the amplitude adsr
+                Amplifier amp = new Amplifier(filter);
+                amp.setAmplitudeMod(adsr);
+                return new VoiceAllocator.Voice(amp, adsr);
+            }
+        });
+        modules.add(voices);
 
         oscilloscope.setDelay(1);
         Oscilloscope.OModule oModule = oscilloscope.getModule();
-        oModule.setAmplitudeModule(amp);
-        modules.add(oModule);
+        oModule.setAmplitudeModule(voices);
+        addMonitor(oModule);
 
-        setOutput(amp);
+        setOutput(voices);
 
 
 
@@ -0,0 +1,178 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * The pitch of every MIDI note, and how far the bend wheel moves it, worked out ahead of
+ * time.  A MidiModule looks the note's pitch up in one table and the bend's ratio in
+ * another (covering all 16384 positions of the wheel) and multiplies them, rather than
+ * calling Math.pow() for every message.
+ *
+ * Tunings are equal temperament by default, or can be read from a Scala (.scl) file.  They
+ * don't change once made, so a new one can be handed to modules at any time.
+ */
+public class Tuning {
+    public static final int NOTES = 128;
+    // the wheel's 14-bit positions, and the one in the middle
+    private static final int BEND_STEPS = 16384;
+    private static final int BEND_CENTER = 8192;
+    private static final int A4 = 69;
+    private static final int MIDDLE_C = 60;
+
+    private static volatile Tuning defaultTuning = new Tuning(equalTemperament(440.0), 24);
+
+    private final double[] frequencies;
+    // each note's frequency as a pitch value (see Utils.hzToValue()), before clamping
+    private final double[] values = new double[NOTES];
+    private final double[] bendRatios = new double[BEND_STEPS];
+    private final double bendRange;
+
+    /**
+     * Makes a tuning with the given frequency, in Hz, for each of the 128 notes, and a bend
+     * wheel which moves pitch up to bendRange semitones either way
+     */
+    public Tuning(double[] frequencies, double bendRange) {
+        if (frequencies.length != NOTES) {
+            throw new IllegalArgumentException("A tuning needs " + NOTES + " frequencies, not " + frequencies.length);
+        }
+        this.frequencies = frequencies.clone();
+        this.bendRange = bendRange;
+        for (int i = 0; i < NOTES; i++) {
+            values[i] = frequencies[i] * Config.INV_NYQUIST_LIMIT;
+        }
+        for (int i = 0; i < BEND_STEPS; i++) {
+            // the bottom position is one step further from the middle than the top; treat it as the top
+            int bend = Math.max(i - BEND_CENTER, -(BEND_CENTER - 1));
+            bendRatios[i] = Math.pow(2.0, bendRange / 12.0 * bend / (BEND_CENTER - 1));
+        }
+    }
+
+    /**
+     * Returns the tuning new MidiModules start with
+     */
+    public static Tuning getDefault() {
+        return defaultTuning;
+    }
+
+    public static void setDefault(Tuning tuning) {
+        defaultTuning = tuning;
+    }
+
+    /**
+     * Returns the frequencies of twelve-tone equal temperament with A4 (note 69) at a4 Hz
+     */
+    public static double[] equalTemperament(double a4) {
+        double[] frequencies = new double[NOTES];
+        for (int i = 0; i < NOTES; i++) {
+            frequencies[i] = a4 * Math.pow(2.0, (i - A4) / 12.0);
+        }
+        return frequencies;
+    }
+
+    /**
+     * Returns the frequencies of the scale in a Scala (.scl) file, with its first degree on
+     * middle C (note 60) where equal temperament would put it
+     */
+    public static double[] readScala(File file) throws IOException {
+        return readScala(file, MIDDLE_C, equalTemperament(440.0)[MIDDLE_C]);
+    }
+
+    /**
+     * Returns the frequencies of the scale in a Scala (.scl) file, with its first degree on
+     * baseNote at baseFrequency Hz.  The scale's last degree is its period (usually 2/1, the
+     * octave), and it repeats every that many notes up and down the keyboard.
+     */
+    public static double[] readScala(File file, int baseNote, double baseFrequency) throws IOException {
+        ArrayList<String> lines = new ArrayList<String>();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.startsWith("!")) {
+                    lines.add(line.trim());
+                }
+            }
+        }
+        // the first line is the scale's description, and the second how many degrees follow
+        if (lines.size() < 2) {
+            throw new IOException(file + " is not a Scala scale file");
+        }
+        int count;
+        try {
+            count = Integer.parseInt(firstWord(lines.get(1)));
+        } catch (NumberFormatException ex) {
+            throw new IOException(file + " does not say how many notes its scale has");
+        }
+        if (count < 1 || lines.size() < 2 + count) {
+            throw new IOException(file + " should have " + count + " notes in its scale");
+        }
+        // ratios[0] is the base of the scale and ratios[count] its period
+        double[] ratios = new double[count + 1];
+        ratios[0] = 1.0;
+        for (int i = 1; i <= count; i++) {
+            ratios[i] = parseRatio(firstWord(lines.get(1 + i)), file);
+        }
+        double[] frequencies = new double[NOTES];
+        for (int i = 0; i < NOTES; i++) {
+            int degree = Math.floorMod(i - baseNote, count);
+            int periods = Math.floorDiv(i - baseNote, count);
+            frequencies[i] = baseFrequency * Math.pow(ratios[count], periods) * ratios[degree];
+        }
+        return frequencies;
+    }
+
+    private static String firstWord(String line) {
+        String[] words = line.split("\\s+");
+        return words[0];
+    }
+
+    // a pitch in cents if it has a decimal point, otherwise a ratio such as 3/2 or a whole number
+    private static double parseRatio(String pitch, File file) throws IOException {
+        try {
+            if (pitch.indexOf('.') >= 0) {
+                return Math.pow(2.0, Double.parseDouble(pitch) / 1200.0);
+            }
+            int slash = pitch.indexOf('/');
+            if (slash < 0) {
+                return Integer.parseInt(pitch);
+            }
+            return Long.parseLong(pitch.substring(0, slash)) / (double) Long.parseLong(pitch.substring(slash + 1));
+        } catch (NumberFormatException ex) {
+            throw new IOException(file + " has a pitch which is neither cents nor a ratio: " + pitch);
+        }
+    }
+
+    /**
+     * Returns the same tuning with a bend wheel which moves pitch up to bendRange semitones either way
+     */
+    public Tuning withBendRange(double bendRange) {
+        return new Tuning(frequencies, bendRange);
+    }
+
+    public double getBendRange() {
+        return bendRange;
+    }
+
+    /**
+     * Returns the frequency of note (0 - 127) in Hz
+     */
+    public double getFrequency(int note) {
+        return frequencies[note];
+    }
+
+    /**
+     * Returns the frequency of note (0 - 127) as a pitch value, which may be over 1 for notes
+     * above Nyquist
+     */
+    public double getValue(int note) {
+        return values[note];
+    }
+
+    /**
+     * Returns how much the bend wheel at position (0 - 16383, with 8192 the middle) multiplies frequency by
+     */
+    public double getBendRatio(int position) {
+        return bendRatios[position];
+    }
+}
@@ -0,0 +1,287 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * A polyphonic front end for a patch.  It owns a number of copies of a voice sub-graph,
+ * each driven by its own MidiModule, reads MIDI itself and hands each note to a voice by
+ * channel and note number.  When every voice is busy, one is stolen according to the
+ * StealPolicy.  Voices whose envelope has finished releasing aren't rendered at all, so
+ * the cost of the allocator follows the number of sounding notes, not the number of voices.
+ * Notes are scheduled on their voice's MidiModule at the tick Midi says they should play,
+ * so they start and stop on the right frame within a block.
+ *
+ * As a module, it outputs the sum of its voices scaled by the gain module (by default
+ * 1 / number of voices, which keeps the output within 0 to 1).
+ */
+public class VoiceAllocator extends Module {
+
+    public enum StealPolicy { OLDEST, QUIETEST, RELEASED_FIRST; }
+
+    /**
+     * Builds one voice: a sub-graph played by the given MidiModule.
+     * Modules shared by all voices (such as dials) may be reused from voice to voice.
+     */
+    public interface VoiceBuilder {
+        Voice build(MidiModule notes);
+    }
+
+    /**
+     * One copy of the voice sub-graph: its output, and the envelope which decides when it is silent
+     */
+    public static class Voice {
+        final Module output;
+        final ADSR envelope;
+        MidiModule notes;
+        Module[] plan;
+        int channel = -1;
+        int note = -1;
+        boolean held = false;
+        long startedAt = -1;
+        // whether the note being started arrived from a device, when, and the tick it was scheduled at
+        boolean timing = false;
+        long arrivalNanos;
+        long arrivalTick;
+
+        public Voice(Module output, ADSR envelope) {
+            this.output = output;
+            this.envelope = envelope;
+        }
+
+        boolean isIdle() {
+            return !held && !notes.hasScheduled() && envelope.isIdle();
+        }
+    }
+
+    private final Midi midi;
+    private final Voice[] voices;
+    private StealPolicy policy = StealPolicy.RELEASED_FIRST;
+    private Module gainMod;
+    private long noteCount = 0;
+    // the last pitch bend seen on each channel, as the device sent it
+    private final int[] bendLSB = new int[16];
+    private final int[] bendMSB = new int[16];
+    // reused for every event polled from midi; pending if it belongs to a later block
+    private final Midi.Event event = new Midi.Event();
+    private boolean eventPending = false;
+    private final double[] single = new double[1];
+    // measures how long live notes take to sound, if set; and whether and when the event being handled arrived
+    private LatencyMonitor latency;
+    private boolean live = false;
+    private long arrivalNanos;
+
+    public VoiceAllocator(Midi midi, int numVoices, VoiceBuilder builder) {
+        this.midi = midi;
+        this.voices = new Voice[numVoices];
+        for (int i = 0; i < numVoices; i++) {
+            MidiModule notes = new MidiModule(null);
+            voices[i] = builder.build(notes);
+            voices[i].notes = notes;
+            voices[i].plan = ModuleGraph.compile(voices[i].output, new ArrayList<Module>());
+        }
+        this.gainMod = new ConstantValue(1.0 / numVoices);
+        // the centre of the bend wheel, as MidiModule.processPitchBend() expects to receive it
+        Arrays.fill(bendMSB, Utils.isUnix() ? 0 : 64);
+    }
+
+    public void setStealPolicy(StealPolicy policy) { this.policy = policy; }
+    public StealPolicy getStealPolicy() { return policy; }
+
+    public void setGainMod(Module gainMod) { this.gainMod = gainMod; }
+    public Module getGainMod() { return gainMod; }
+
+    public void setLatencyMonitor(LatencyMonitor latency) { this.latency = latency; }
+
+    // Tunes every voice, from its next message on (see MidiModule.setTuning())
+    public void setTuning(Tuning tuning) {
+        for (Voice v : voices) {
+            v.notes.setTuning(tuning);
+        }
+    }
+
+    // the voices are rendered from here, so they aren't inputs
+    public Module[] getInputs() {
+        return new Module[] { gainMod };
+    }
+
+    // Returns the modules of every voice, so their controls can be found (see Synth.warmup())
+    public ArrayList<Module> getVoiceModules() {
+        ArrayList<Module> modules = new ArrayList<Module>();
+        for (Voice v : voices) {
+            modules.addAll(Arrays.asList(v.plan));
+        }
+        return modules;
+    }
+
+    // Returns how many voices are currently being rendered
+    public int getActiveVoices() {
+        int count = 0;
+        for (Voice v : voices) {
+            if (!v.isIdle()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public double tick(long tickCount) {
+        processBlock(tickCount, 1, single);
+        return single[0];
+    }
+
+    @Override
+    public void processBlock(long startTick, int frames, double[] out) {
+        if (midi != null) {
+            long endTick = startTick + frames;
+            while (eventPending || midi.poll(event)) {
+                if (event.tick >= endTick) {
+                    eventPending = true;
+                    break;
+                }
+                eventPending = false;
+                live = event.live;
+                arrivalNanos = event.nanos;
+                handle(Math.max(event.tick, startTick), event.status, event.data1, event.data2);
+            }
+        }
+
+        Arrays.fill(out, 0, frames, 0.0);
+        for (Voice v : voices) {
+            if (v.isIdle()) {
+                continue;
+            }
+            for (Module m : v.plan) {
+                m.getBlock(startTick, frames);
+            }
+            double[] voiceOut = v.output.getBlock(startTick, frames);
+            if (v.timing && v.envelope.getAttackTick() >= v.arrivalTick) {
+                if (latency != null) {
+                    latency.record(v.arrivalNanos, v.envelope.getAttackTick());
+                }
+                v.timing = false;
+            }
+            for (int i = 0; i < frames; i++) {
+                out[i] += voiceOut[i];
+            }
+        }
+        double[] gain = gainMod.getBlock(startTick, frames);
+        if (gainMod.getRate() == Rate.CONSTANT) {
+            double g = gain[0];
+            for (int i = 0; i < frames; i++) {
+                out[i] *= g;
+            }
+            return;
+        }
+        for (int i = 0; i < frames; i++) {
+            out[i] *= gain[i];
+        }
+    }
+
+    // Routes a MIDI message to be played at tick to the voice(s) it belongs to
+    void handle(long tick, int status, int data1, int data2) {
+        int channel = status & 0x0F;
+        switch (status & 0xF0) {
+            case ShortMessage.NOTE_ON:
+                if (data2 > 0) {
+                    noteOn(tick, channel, data1, data2);
+                } else {
+                    noteOff(tick, channel, data1);
+                }
+                break;
+            case ShortMessage.NOTE_OFF:
+                noteOff(tick, channel, data1);
+                break;
+            case ShortMessage.PITCH_BEND:
+                bendLSB[channel] = data1;
+                bendMSB[channel] = data2;
+                for (Voice v : voices) {
+                    if (v.channel == channel) {
+                        v.notes.schedule(tick, status, data1, data2);
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    void noteOn(long tick, int channel, int note, int velocity) {
+        Voice voice = find(channel, note);
+        if (voice == null) {
+            voice = findIdle();
+        }
+        if (voice == null) {
+            voice = steal();
+        }
+        if (!voice.isIdle()) {
+            // drop the gate for a frame so the envelopes retrigger
+            voice.notes.schedule(tick, ShortMessage.NOTE_OFF | voice.channel, voice.note, 0);
+            tick++;
+        }
+        if (voice.channel != channel) {
+            // moving to another channel: pick up that channel's bend
+            voice.notes.schedule(tick, ShortMessage.PITCH_BEND | channel, bendLSB[channel], bendMSB[channel]);
+        }
+        voice.channel = channel;
+        voice.note = note;
+        voice.held = true;
+        voice.startedAt = noteCount++;
+        voice.timing = live;
+        voice.arrivalNanos = arrivalNanos;
+        voice.arrivalTick = tick;
+        voice.notes.schedule(tick, ShortMessage.NOTE_ON | channel, note, velocity);
+    }
+
+    void noteOff(long tick, int channel, int note) {
+        Voice voice = find(channel, note);
+        if (voice == null) {
+            return;
+        }
+        voice.held = false;
+        voice.notes.schedule(tick, ShortMessage.NOTE_OFF | channel, note, 0);
+    }
+
+    // the held voice playing this note on this channel, if any
+    private Voice find(int channel, int note) {
+        for (Voice v : voices) {
+            if (v.held && v.channel == channel && v.note == note) {
+                return v;
+            }
+        }
+        return null;
+    }
+
+    private Voice findIdle() {
+        for (Voice v : voices) {
+            if (v.isIdle()) {
+                return v;
+            }
+        }
+        return null;
+    }
+
+    private Voice steal() {
+        Voice best = voices[0];
+        for (Voice v : voices) {
+            switch (policy) {
+                case OLDEST:
+                    if (v.startedAt < best.startedAt) {
+                        best = v;
+                    }
+                    break;
+                case QUIETEST:
+                    if (v.envelope.getLevel() < best.envelope.getLevel()) {
+                        best = v;
+                    }
+                    break;
+                case RELEASED_FIRST:
+                    // released voices beat held ones; otherwise the oldest wins
+                    if ((best.held && !v.held) || (best.held == v.held && v.startedAt < best.startedAt)) {
+                        best = v;
+                    }
+                    break;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * One cycle of a waveform, band-limited for every octave it might be played in.  Each
+ * level of the mipmap holds only the harmonics which stay below Nyquist for the highest
+ * note of its octave, so reading the right level never aliases, and reading a table costs
+ * two loads and an interpolation rather than the trigonometry of a BLIT.
+ *
+ * The tables are summed from their harmonics once, when a waveform is first used, and are
+ * shared by every oscillator playing it.  Each cycle spans -0.5 to 0.5 (before Gibbs
+ * ringing), as SAW, SQUARE and TRIANGLE do.
+ */
+public class Wavetable {
+    // samples per cycle, a power of two so the phase wraps with a mask, and a fixed-point
+    // phase's top BITS bits index the table
+    public static final int BITS = 11;
+    public static final int SIZE = 1 << BITS;
+    public static final int MASK = SIZE - 1;
+    // the lowest fundamental with a level of its own; lower notes share level 0
+    private static final double LOWEST = 20.0;
+    // one level per octave from LOWEST to Nyquist
+    private static final int LEVELS = (int) Math.ceil(Math.log(Config.NYQUIST_LIMIT / LOWEST) / Math.log(2));
+
+    private static Wavetable saw;
+    private static Wavetable square;
+    private static Wavetable triangle;
+
+    // levels[i] holds SIZE + 1 samples (the first repeated at the end, for interpolation)
+    private final float[][] levels = new float[LEVELS][];
+
+    /**
+     * Builds the tables for a waveform whose nth harmonic is sines[n] * sin(n x) + cosines[n] * cos(n x).
+     * Entry 0 of each is ignored.
+     */
+    private Wavetable(double[] sines, double[] cosines) {
+        // a table of SIZE points can't hold more than SIZE / 2 harmonics
+        int harmonics = Math.min(Math.max(sines.length, cosines.length) - 1, SIZE / 2 - 1);
+        double[] sin = new double[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            sin[i] = Math.sin(2 * Math.PI * i / SIZE);
+        }
+        // Build from the top level (fewest harmonics) down, adding harmonics as each lower
+        // level allows more, so every harmonic is only summed once.
+        double[] sum = new double[SIZE];
+        int added = 0;
+        for (int level = LEVELS - 1; level >= 0; level--) {
+            int limit = Math.min(harmonics, getHarmonics(level));
+            for (int h = added + 1; h <= limit; h++) {
+                double s = h < sines.length ? sines[h] : 0;
+                double c = h < cosines.length ? cosines[h] : 0;
+                for (int i = 0; i < SIZE; i++) {
+                    int index = (h * i) & MASK;
+                    sum[i] += s * sin[index] + c * sin[(index + SIZE / 4) & MASK];
+                }
+            }
+            added = Math.max(added, limit);
+            float[] table = new float[SIZE + 1];
+            for (int i = 0; i < SIZE; i++) {
+                table[i] = (float) sum[i];
+            }
+            table[SIZE] = table[0];
+            levels[level] = table;
+        }
+    }
+
+    // how many harmonics of the highest fundamental in level's octave fit below Nyquist
+    private static int getHarmonics(int level) {
+        return Math.max(1, (int) (Config.NYQUIST_LIMIT / (LOWEST * Math.pow(2, level + 1))));
+    }
+
+    /**
+     * A rising sawtooth
+     */
+    public static synchronized Wavetable getSaw() {
+        if (saw == null) {
+            double[] sines = new double[SIZE / 2];
+            for (int h = 1; h < sines.length; h++) {
+                sines[h] = -1.0 / (Math.PI * h);
+            }
+            saw = new Wavetable(sines, new double[0]);
+        }
+        return saw;
+    }
+
+    /**
+     * A square wave, high for the first half of the cycle
+     */
+    public static synchronized Wavetable getSquare() {
+        if (square == null) {
+            double[] sines = new double[SIZE / 2];
+            for (int h = 1; h < sines.length; h += 2) {
+                sines[h] = 2.0 / (Math.PI * h);
+            }
+            square = new Wavetable(sines, new double[0]);
+        }
+        return square;
+    }
+
+    /**
+     * A triangle wave, rising through zero at the start of the cycle
+     */
+    public static synchronized Wavetable getTriangle() {
+        if (triangle == null) {
+            double[] sines = new double[SIZE / 2];
+            for (int h = 1; h < sines.length; h += 2) {
+                sines[h] = ((h / 2) % 2 == 0 ? 4.0 : -4.0) / (Math.PI * Math.PI * h * h);
+            }
+            triangle = new Wavetable(sines, new double[0]);
+        }
+        return triangle;
+    }
+
+    /**
+     * A waveform whose nth harmonic has the amplitude amplitudes[n] (entry 0 is ignored),
+     * scaled so that it peaks at 0.5
+     */
+    public static Wavetable fromHarmonics(double[] amplitudes) {
+        return normalize(new Wavetable(amplitudes, new double[0]));
+    }
+
+    /**
+     * A waveform with the shape of one cycle of samples (of any length), scaled so that it
+     * peaks at 0.5.  Harmonics too high for the cycle's length, or for a level, are dropped.
+     */
+    public static Wavetable fromCycle(double[] cycle) {
+        int n = cycle.length;
+        double[] sines = new double[n / 2];
+        double[] cosines = new double[n / 2];
+        for (int h = 1; h < n / 2; h++) {
+            for (int i = 0; i < n; i++) {
+                double angle = 2 * Math.PI * h * i / n;
+                sines[h] += cycle[i] * Math.sin(angle) * 2 / n;
+                cosines[h] += cycle[i] * Math.cos(angle) * 2 / n;
+            }
+        }
+        return normalize(new Wavetable(sines, cosines));
+    }
+
+    // scales every level alike, so the waveform is as loud in every octave
+    private static Wavetable normalize(Wavetable table) {
+        double peak = 0;
+        for (float v : table.levels[0]) {
+            peak = Math.max(peak, Math.abs(v));
+        }
+        if (peak > 0) {
+            for (float[] level : table.levels) {
+                for (int i = 0; i < level.length; i++) {
+                    level[i] = (float) (level[i] * 0.5 / peak);
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Returns the level to play a fundamental of hz from
+     */
+    public static int getLevel(double hz) {
+        // the binary exponent is the octave above LOWEST, without a call to log
+        int level = Math.getExponent(hz * (1.0 / LOWEST));
+        return Math.max(0, Math.min(LEVELS - 1, level));
+    }
+
+    /**
+     * Returns the table for level, of SIZE + 1 samples
+     */
+    public float[] getTable(int level) {
+        return levels[level];
+    }
+
+    /**
+     * Returns the waveform at phase (0 to 1) in level, interpolating between samples
+     */
+    public double getValue(int level, double phase) {
+        float[] table = levels[level];
+        double position = phase * SIZE;
+        int index = (int) position;
+        double fraction = position - index;
+        index &= MASK;
+        return table[index] + (table[index + 1] - table[index]) * fraction;
+    }
+
+    /**
+     * Returns the waveform at a fixed-point phase (see Phase) in level, interpolating between samples
+     */
+    public double getValue(int level, int phase) {
+        float[] table = levels[level];
+        int index = Phase.index(phase, BITS);
+        return table[index] + (table[index + 1] - table[index]) * Phase.fraction(phase, BITS);
+    }
+}
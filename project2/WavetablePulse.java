@@ -0,0 +1,57 @@
+/**
+ * A band-limited pulse wave of any width, made as BPBlit makes one from two BLITs: by
+ * subtracting a sawtooth from a copy of itself shifted by the width.  The width (0 to 1)
+ * comes from the phase module, as in BPBlit and BlitSquare, and may change every sample.
+ * Whatever the width, the pulse averages to 0.5.
+ */
+public class WavetablePulse extends WavetableOsc {
+    Module phaseMod = new ConstantValue(0.5);
+
+    public WavetablePulse() {
+        super(Wavetable.getSaw());
+    }
+
+    public void setPhaseMod(Module phaseMod) {
+        this.phaseMod = phaseMod;
+    }
+
+    public Module getPhaseMod() {
+        return this.phaseMod;
+    }
+
+    public Module[] getInputs() {
+        return new Module[] { frequencyMod, amplitudeMod, phaseMod };
+    }
+
+    public double tick(long tickCount) {
+        double hz = Utils.valueToHz(getFrequencyMod().getValue());
+        state += Phase.increment(hz);
+        return amplitudeMod.getValue() * pulse(Wavetable.getLevel(hz), phaseMod.getValue());
+    }
+
+    public void processBlock(long startTick, int frames, double[] out) {
+        double[] frequency = getFrequencyMod().getBlock(startTick, frames);
+        double[] amplitude = amplitudeMod.getBlock(startTick, frames);
+        double[] width = phaseMod.getBlock(startTick, frames);
+        boolean steady = getFrequencyMod().getRate() == Rate.CONSTANT;
+        double hz = Utils.valueToHz(frequency[0]);
+        int level = Wavetable.getLevel(hz);
+        int increment = Phase.increment(hz);
+        for (int i = 0; i < frames; i++) {
+            if (!steady) {
+                hz = Utils.valueToHz(frequency[i]);
+                level = Wavetable.getLevel(hz);
+                increment = Phase.increment(hz);
+            }
+            state += increment;
+            out[i] = amplitude[i] * pulse(level, width[i]);
+        }
+    }
+
+    // the saw at the current phase less the saw width further on, moved up to average 0.5
+    private double pulse(int level, double width) {
+        width = Math.min(Math.max(0, width), 1);
+        int shifted = state + Phase.fromTurns(width);
+        return wavetable.getValue(level, state) - wavetable.getValue(level, shifted) + 0.5;
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Benchmarks each of project 3's modules, both a sample at a time through tick() and a
+ * block at a time, followed by the complete patch from Synth.setup() with every voice playing.
+ * Run it with "make bench" and compare the results before and after a change.
+ */
+public class Bench {
+    public static void main(String[] args) {
+        // the patch builds its controls, but there's no need to show them
+        System.setProperty("java.awt.headless", "true");
+        Benchmark.header("Project 3");
+
+        for (Utils.Sine sine : Utils.Sine.values()) {
+            Benchmark.report("Utils.sinTurns " + sine, Benchmark.sine(sine));
+            Benchmark.accuracy("Utils.sinTurns " + sine, sine);
+        }
+
+        Benchmark.report("Osc tick", Benchmark.tick(new Osc()));
+        Benchmark.report("Osc block", Benchmark.block(new Osc()));
+
+        Benchmark.report("PM tick", Benchmark.tick(new PM()));
+        Benchmark.report("PM block", Benchmark.block(new PM()));
+
+        for (ThreeOperatorPM.AlgorithmType algorithm : ThreeOperatorPM.AlgorithmType.values()) {
+            Benchmark.report("ThreeOperatorPM " + algorithm + " tick", Benchmark.tick(threeOperatorPM(algorithm)));
+            Benchmark.report("ThreeOperatorPM " + algorithm + " block", Benchmark.block(threeOperatorPM(algorithm)));
+        }
+
+        Benchmark.report("ADSR tick", Benchmark.tick(new ADSR(new Benchmark.Gate())));
+        Benchmark.report("ADSR block", Benchmark.block(new ADSR(new Benchmark.Gate())));
+
+        Benchmark.report("Synth.setup() patch, 8 notes", Benchmark.patch(new Synth(), 8), 8);
+        // the patch's controls start timers which would otherwise keep us running
+        System.exit(0);
+    }
+
+    static ThreeOperatorPM threeOperatorPM(ThreeOperatorPM.AlgorithmType algorithm) {
+        ThreeOperatorPM pm = new ThreeOperatorPM();
+        pm.setAlgorithmMod(new ConstantValue(algorithm.ordinal()));
+        return pm;
+    }
+}
@@ -4,6 +4,7 @@
 
 import javax.sound.midi.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /****
      Static class which contains methods for handling the global MIDI device facility.
@@ -31,11 +32,18 @@ public class Midi {
         }
 
     Object lock = new Object[0];
-    // All current MIDI Messages which have not been grabbed yet
-    ArrayList<MidiMessage> nextMessages = new ArrayList<MidiMessage>();
+    // All current MIDI events which have not been grabbed yet.  Filled by the device
+    // thread and drained by the audio thread without locking.
+    EventQueue events = new EventQueue(EventQueue.DEFAULT_CAPACITY);
     MidiMessage[] empty = new MidiMessage[0];
+    // Where the sample clock was at a known System.nanoTime(), used to turn arrival times
+    // into ticks.  Set by the renderer at the start of every block; audio thread only.
+    long clockTick = 0;
+    long clockNanos = System.nanoTime();
     InReceiver inReceiver = null;
     Parser parser = new Parser();
+    // Parameters bound to controllers, set as controller messages arrive (see ControlSurface)
+    volatile ControlSurface controlSurface = null;
 
     // updates the current MIDI devices registered
     static void updateDevices() {
@@ -287,29 +295,81 @@ public class Midi {
 
     /// UTILITIES FOR PARSING
 
-    public MidiMessage[] waitForMessages() {
-        synchronized (lock) {
-            try {
-                lock.wait();
-                return getNextMessages();
-                } catch (InterruptedException ex) {
-                return new MidiMessage[0];
+    /**
+     * Events are scheduled this many ticks after the sample clock says they arrived, so that
+     * an event which arrives while a block is being rendered still lands in the next block at
+     * the right offset rather than at its start.
+     */
+    public static final int SCHEDULING_DELAY = Config.BLOCK_SIZE;
+
+    /**
+     * Tells the scheduler that the sample clock is at tick as of System.nanoTime() nanos.
+     * The renderer calls this at the start of every block.
+     */
+    public void setClock(long tick, long nanos) {
+        clockTick = tick;
+        clockNanos = nanos;
+        }
+
+    /**
+     * Returns the tick at which an event which arrived at System.nanoTime() nanos should be played
+     */
+    public long toTick(long nanos) {
+        return clockTick + SCHEDULING_DELAY + (long) ((nanos - clockNanos) * (Config.SAMPLING_RATE / 1.0e9));
+        }
+
+    /**
+     * Copies the next pending MIDI event into event, along with the tick it should be played
+     * at, and returns true; or returns false if there are none.  This neither locks nor
+     * allocates, so it is safe to call from the audio thread.  Only one thread may poll.
+     */
+    public boolean poll(Event event) {
+        if (!events.poll(event)) return false;
+        event.live = event.tick < 0;
+        if (event.live) {
+            event.tick = toTick(event.nanos);
+            if (SynthEvents.MIDI_ARRIVAL.isEnabled()) {
+                SynthEvents.MidiArrival arrival = new SynthEvents.MidiArrival();
+                if (arrival.shouldCommit()) {
+                    arrival.status = event.status;
+                    arrival.data1 = event.data1;
+                    arrival.data2 = event.data2;
+                    arrival.delay = System.nanoTime() - event.nanos;
+                    arrival.tick = event.tick;
+                    arrival.commit();
+                    }
                 }
             }
+        return true;
+        }
+
+    /**
+     * Queues a short message to be played at the given tick, for playing a MIDI file rather
+     * than a device.  Returns false if the queue is full.  Events are polled in the order they
+     * were queued, so queue them in order, and not while an input device is also feeding this Midi.
+     */
+    public boolean schedule(int status, int data1, int data2, long tick) {
+        return events.offer(status, data1, data2, -1, System.nanoTime(), tick);
         }
 
     /**
      * Returns all MIDI Messages, in order, that have not yet been processed.  By calling this,
-     * the messages are processed and removed from this queue.
+     * the messages are processed and removed from this queue.  This allocates a message per
+     * event: the audio thread should use poll(Event) instead.
      */
     public MidiMessage[] getNextMessages() {
-        MidiMessage[] ret = empty;
-        synchronized (lock) {
-            if (nextMessages.size() == 0) return empty;  // fast return
-            ret = (MidiMessage[]) nextMessages.toArray(new MidiMessage[nextMessages.size()]);
-            nextMessages.clear();
+        Event event = new Event();
+        ArrayList<MidiMessage> messages = null;
+        while (events.poll(event)) {
+            if (messages == null) messages = new ArrayList<MidiMessage>();
+            try {
+                messages.add(new ShortMessage(event.status, event.data1, event.data2));
+                } catch (InvalidMidiDataException ex) {
+                // can't happen: the receiver only queues valid short messages
+                }
             }
-        return ret;
+        if (messages == null) return empty;  // fast return
+        return messages.toArray(new MidiMessage[messages.size()]);
         }
 
     /**
@@ -325,6 +385,14 @@ public class Midi {
             }
         }
 
+    /**
+     * Sends controller messages arriving from the input device to surface as well as the queue.
+     * The surface then owns the parser.
+     */
+    public void setControlSurface(ControlSurface surface) {
+        controlSurface = surface;
+        }
+
     /**
      * Returns the CC/NRPN/RPN parser
      */
@@ -472,11 +540,23 @@ public class Midi {
         public boolean increment;
 
         public CCData(int type, int number, int value, int channel, boolean increment) {
+            set(type, number, value, channel, increment);
+            }
+
+        /**
+         * Makes an empty record, for the parser to fill in (see Parser.processCC(..., into))
+         */
+        public CCData() { }
+
+        void set(int type, int number, int value, int channel, boolean increment) {
             this.type = type;
             this.number = number;
             this.value = value;
             this.increment = increment;
             this.channel = channel;
+            validMSB = false;
+            validLSB = false;
+            msbSentLast = false;
             }
         }
 
@@ -609,6 +689,16 @@ public class Midi {
         // The controllerValueLSB is either a valid LSB or it is  (-1).
         int[] controllerValueLSB = new int[16];
 
+        // The record processCC(..., into) is filling in, or null if each result is a new CCData.
+        CCData into = null;
+
+        // Returns the result of a parse, in into if there is one
+        CCData result(int type, int number, int value, int channel, boolean increment) {
+            if (into == null)
+                return new CCData(type, number, value, channel, increment);
+            into.set(type, number, value, channel, increment);
+            return into;
+            }
 
         // we presume that the channel never changes
         CCData parseCC(int channel, int number, int value, boolean requireLSB, boolean requireMSB) {
@@ -721,13 +811,36 @@ public class Midi {
             return parseCC(channel, num, val, requireLSB, requireMSB);
             }
 
+        /**
+         * Like processCC(message, requireLSB, requireMSB), but rather than allocating a new CCData
+         * for the result, fills in and returns into, so that a stream of controller messages makes
+         * no garbage.  Returns null, leaving into alone, if the message doesn't complete anything.
+         * into is only good until the next call.
+         */
+        public CCData processCC(ShortMessage message, boolean requireLSB, boolean requireMSB, CCData into) {
+            return processCC(message.getChannel(), message.getData1(), message.getData2(), requireLSB, requireMSB, into);
+            }
+
+        /**
+         * As processCC(message, requireLSB, requireMSB, into), for a controller message already
+         * taken apart, such as a polled Event's
+         */
+        public CCData processCC(int channel, int number, int value, boolean requireLSB, boolean requireMSB, CCData into) {
+            this.into = into;
+            try {
+                return parseCC(channel, number, value, requireLSB, requireMSB);
+                } finally {
+                this.into = null;
+                }
+            }
+
         /**
          * Parses an NRPN message
          */
         public CCData handleNRPN(int channel, int controllerNumber, int _controllerValueLSB, int _controllerValueMSB, boolean validLSB, boolean validMSB, boolean msbSentLast) {
             if (_controllerValueLSB < 0 || _controllerValueMSB < 0)
                 System.err.println("WARNING(Midi.java): LSB or MSB < 0.  NRPN: " + controllerNumber + "   LSB: " + _controllerValueLSB + "  MSB: " + _controllerValueMSB);
-            CCData data = new CCData(CCData.TYPE_NRPN, controllerNumber, _controllerValueLSB | (_controllerValueMSB << 7), channel, false);
+            CCData data = result(CCData.TYPE_NRPN, controllerNumber, _controllerValueLSB | (_controllerValueMSB << 7), channel, false);
             data.validMSB = validMSB;
             data.validLSB = validLSB;
             data.msbSentLast = msbSentLast;
@@ -738,7 +851,7 @@ public class Midi {
          * Parses an NRPN increment message
          */
         public CCData handleNRPNIncrement(int channel, int controllerNumber, int delta) {
-            return new CCData(CCData.TYPE_NRPN, controllerNumber, delta, channel, true);
+            return result(CCData.TYPE_NRPN, controllerNumber, delta, channel, true);
             }
 
         /**
@@ -747,7 +860,7 @@ public class Midi {
         public CCData handleRPN(int channel, int controllerNumber, int _controllerValueLSB, int _controllerValueMSB, boolean validLSB, boolean validMSB, boolean msbSentLast) {
             if (_controllerValueLSB < 0 || _controllerValueMSB < 0)
                 System.err.println("WARNING(Midi.java): LSB or MSB < 0.  RPN: " + controllerNumber + "   LSB: " + _controllerValueLSB + "  MSB: " + _controllerValueMSB);
-            CCData data = new CCData(CCData.TYPE_RPN, controllerNumber, _controllerValueLSB | (_controllerValueMSB << 7), channel, false);
+            CCData data = result(CCData.TYPE_RPN, controllerNumber, _controllerValueLSB | (_controllerValueMSB << 7), channel, false);
             data.validMSB = validMSB;
             data.validLSB = validLSB;
             data.msbSentLast = msbSentLast;
@@ -758,40 +871,145 @@ public class Midi {
          * Parses an RPN increment message
          */
         public CCData handleRPNIncrement(int channel, int controllerNumber, int delta) {
-            return new CCData(CCData.TYPE_RPN, controllerNumber, delta, channel, true);
+            return result(CCData.TYPE_RPN, controllerNumber, delta, channel, true);
             }
 
         /**
          * Parses a CC message
          */
         public CCData handleRawCC(int channel, int controllerNumber, int value) {
-            return new CCData(CCData.TYPE_RAW_CC, controllerNumber, value, channel, false);
+            return result(CCData.TYPE_RAW_CC, controllerNumber, value, channel, false);
+            }
+        }
+
+    /**
+     * A short MIDI message (note, controller, bend...) as it sits in the EventQueue
+     */
+    public static class Event {
+        public int status;
+        public int data1;
+        public int data2;
+        /**
+         * The device timestamp in microseconds, or -1 if the device doesn't provide one
+         */
+        public long timestamp;
+        /**
+         * System.nanoTime() when the event arrived
+         */
+        public long nanos;
+        /**
+         * The tick at which the event should be played (filled in by Midi.poll if not scheduled)
+         */
+        public long tick;
+        /**
+         * True if the event came from a device, false if it was scheduled
+         */
+        public boolean live;
+
+        public int getCommand() { return status & 0xF0; }
+        public int getChannel() { return status & 0x0F; }
+        }
+
+    /**
+     * A lock-free single-producer / single-consumer ring of preallocated MIDI events.
+     * The producer (the MIDI device thread) writes a slot and then publishes it by
+     * advancing tail; the consumer (the audio thread) reads slots up to tail and then
+     * frees them by advancing head.  When the ring is full new events are dropped
+     * and counted rather than blocking the device thread.
+     */
+    public static class EventQueue {
+        public static final int DEFAULT_CAPACITY = 1024;
+
+        final int[] status;
+        final int[] data1;
+        final int[] data2;
+        final long[] timestamp;
+        final long[] nanos;
+        final long[] tick;
+        final int mask;
+        // next slot to read, written only by the consumer
+        final AtomicLong head = new AtomicLong();
+        // next slot to write, written only by the producer
+        final AtomicLong tail = new AtomicLong();
+        volatile long dropped = 0;
+
+        // capacity is rounded up to a power of two
+        public EventQueue(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+            status = new int[size];
+            data1 = new int[size];
+            data2 = new int[size];
+            timestamp = new long[size];
+            nanos = new long[size];
+            tick = new long[size];
+            mask = size - 1;
+            }
+
+        /**
+         * Producer side: queues an event, or returns false (and counts it) if the ring is full.
+         * The tick is -1 if the event should be scheduled from its arrival time.
+         */
+        public boolean offer(int status, int data1, int data2, long timestamp, long nanos, long tick) {
+            long t = tail.get();
+            if (t - head.get() > mask) {
+                dropped++;
+                return false;
+                }
+            int slot = (int) t & mask;
+            this.status[slot] = status;
+            this.data1[slot] = data1;
+            this.data2[slot] = data2;
+            this.timestamp[slot] = timestamp;
+            this.nanos[slot] = nanos;
+            this.tick[slot] = tick;
+            tail.lazySet(t + 1);        // release: the slot is written before it is published
+            return true;
             }
+
+        /**
+         * Consumer side: copies the oldest event into event, or returns false if there is none
+         */
+        public boolean poll(Event event) {
+            long h = head.get();
+            if (h == tail.get()) return false;
+            int slot = (int) h & mask;
+            event.status = status[slot];
+            event.data1 = data1[slot];
+            event.data2 = data2[slot];
+            event.timestamp = timestamp[slot];
+            event.nanos = nanos[slot];
+            event.tick = tick[slot];
+            head.lazySet(h + 1);        // release: the slot is read before it is handed back
+            return true;
+            }
+
+        /**
+         * Returns how many events have been dropped because the ring was full
+         */
+        public long getDropped() { return dropped; }
         }
 
     // Our special kind of receiver.
     class InReceiver implements Receiver {
-        boolean live = true;
+        volatile boolean live = true;
 
         // these have to be public because the superclass has them public
         public void close() {
-            synchronized (lock) {
-                live = false;
-                }
+            live = false;
             }
 
         // these have to be public because the superclass has them public
         public void send(MidiMessage message, long timeStamp) {
-            int command = message.getStatus();              // Note NOT getCommand().  getCommand() only works for channel messages.
-
-            synchronized (lock) {
-                // first things first, get out of the lock as fast as we can.
-                // We do that by adding the message if we need to.
-
-                if (live) {
-                    nextMessages.add(message);
-                    lock.notify();
-                    return;
+            // stamp the arrival first, before anything else can delay it
+            long nanos = System.nanoTime();
+            // only short messages are queued: nothing here uses sysex
+            if (live && message instanceof ShortMessage) {
+                ShortMessage sm = (ShortMessage) message;
+                events.offer(sm.getStatus(), sm.getData1(), sm.getData2(), timeStamp, nanos, -1);
+                // controllers bound to parameters turn them right away, on this thread, which owns the parser
+                ControlSurface surface = controlSurface;
+                if (surface != null && sm.getCommand() == ShortMessage.CONTROL_CHANGE) {
+                    surface.handle(sm, parser);
                     }
                 }
             }
@@ -0,0 +1,133 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/**
+ * A standard MIDI file, flattened into a single list of short messages stamped with the
+ * tick (sample) at which each should be played.  Tempo changes are applied while loading,
+ * so playing the file is just a matter of handing Midi every event due before a given tick.
+ * The renderer does this once a block, whether it is rendering offline as fast as it can
+ * or to an audio device in realtime, so either way every note lands on the same sample.
+ */
+public class MidiFile {
+    private static final int TEMPO = 0x51;
+    private static final int DEFAULT_MICROSECONDS_PER_QUARTER = 500000;
+
+    private final long[] tick;
+    private final int[] status;
+    private final int[] data1;
+    private final int[] data2;
+    private int next = 0;
+    // the tick at which the file started playing
+    private long offset = 0;
+
+    public MidiFile(File file) throws IOException, InvalidMidiDataException {
+        Sequence sequence = MidiSystem.getSequence(file);
+
+        // merge the tracks, keeping events at the same tick in track order
+        ArrayList<MidiEvent> merged = new ArrayList<MidiEvent>();
+        for (Track track : sequence.getTracks()) {
+            for (int i = 0; i < track.size(); i++) {
+                merged.add(track.get(i));
+            }
+        }
+        Collections.sort(merged, new Comparator<MidiEvent>() {
+            public int compare(MidiEvent a, MidiEvent b) {
+                return Long.compare(a.getTick(), b.getTick());
+            }
+        });
+
+        int count = 0;
+        for (MidiEvent e : merged) {
+            if (e.getMessage() instanceof ShortMessage) {
+                count++;
+            }
+        }
+        tick = new long[count];
+        status = new int[count];
+        data1 = new int[count];
+        data2 = new int[count];
+
+        boolean ppq = sequence.getDivisionType() == Sequence.PPQ;
+        int resolution = sequence.getResolution();
+        long microsecondsPerQuarter = DEFAULT_MICROSECONDS_PER_QUARTER;
+        long lastTick = 0;
+        double microseconds = 0;
+        count = 0;
+        for (MidiEvent e : merged) {
+            if (ppq) {
+                microseconds += (e.getTick() - lastTick) * (double) microsecondsPerQuarter / resolution;
+            } else {
+                microseconds = e.getTick() * 1.0e6 / (sequence.getDivisionType() * resolution);
+            }
+            lastTick = e.getTick();
+
+            MidiMessage message = e.getMessage();
+            if (message instanceof MetaMessage && ((MetaMessage) message).getType() == TEMPO) {
+                byte[] data = ((MetaMessage) message).getData();
+                microsecondsPerQuarter = ((data[0] & 0xFF) << 16) | ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+            } else if (message instanceof ShortMessage) {
+                ShortMessage sm = (ShortMessage) message;
+                tick[count] = Math.round(microseconds * Config.SAMPLING_RATE / 1.0e6);
+                status[count] = sm.getStatus();
+                data1[count] = sm.getData1();
+                data2[count] = sm.getData2();
+                count++;
+            }
+        }
+    }
+
+    /**
+     * Returns the tick of the last event in the file
+     */
+    public long getLength() {
+        return tick.length == 0 ? 0 : tick[tick.length - 1];
+    }
+
+    /**
+     * Hands midi every event not yet played which is due before the given tick.
+     * Returns false once the whole file has been played.
+     */
+    public boolean play(Midi midi, long until) {
+        while (next < tick.length && tick[next] + offset < until) {
+            if (!midi.schedule(status[next], data1[next], data2[next], tick[next] + offset)) {
+                // the queue is full: try again next block
+                break;
+            }
+            next++;
+        }
+        return next < tick.length;
+    }
+
+    /**
+     * Returns true once every event has been handed to Midi
+     */
+    public boolean isFinished() {
+        return next == tick.length;
+    }
+
+    /**
+     * Starts playing from the beginning again
+     */
+    public void rewind() {
+        rewind(0);
+    }
+
+    /**
+     * Starts playing from the beginning again, with the start of the file at startTick
+     */
+    public void rewind(long startTick) {
+        next = 0;
+        offset = startTick;
+    }
+}
@@ -5,8 +5,23 @@ public class MidiGate extends Module {
         this.midiModule = midiModule;
         }
 
+    public Module[] getInputs() {
+        return new Module[] { midiModule };
+        }
+
     @Override
     public double tick(long tickCount) {
         return this.midiModule.getGate();
         }
+
+    public Rate getRate() {
+        return midiModule.getRate();
+        }
+
+    // the gate changes partway through a block, so read it frame by frame
+    @Override
+    public void processBlock(long startTick, int frames, double[] out) {
+        midiModule.getBlock(startTick, frames);
+        System.arraycopy(midiModule.getGates(), 0, out, 0, frames);
+        }
     }
@@ -1,15 +1,58 @@
 public abstract class Module {
     private double value = 0.0;
 
+    // The most recently rendered block of output, and the tick it started on
+    private final double[] block = new double[Config.BLOCK_SIZE];
+    private long blockStart = -1;
+
+    // The block the audio thread is currently rendering, and the frame within it
+    // which per-sample code is looking at.  Only the audio thread touches these.
+    static long renderStart = -1;
+    static int renderFrame = 0;
+    // If set, times some of the blocks rendered (see RenderStats).  Only the audio thread touches this.
+    static RenderStats stats = null;
+
+    // While a block is being rendered, modules which have already rendered it
+    // report the sample for the current frame rather than their last value
     public double getValue() {
+        if (isRendered()) {
+            return block[renderFrame];
+            }
         return value;
         }
 
+    // Returns true if this module has already rendered the block being rendered now
+    protected final boolean isRendered() {
+        return renderStart >= 0 && blockStart == renderStart;
+        }
+
     // Set the value to be recalled later
     public void setValue(double value) {
         this.value = value;
         }
 
+    // The modules this module reads from.  ModuleGraph walks these to order the patch,
+    // so modules with inputs must override it.  Sub-modules a module ticks itself
+    // (such as Hammond's oscillators) are not inputs.
+    public Module[] getInputs() {
+        return NO_INPUTS;
+        }
+
+    static final Module[] NO_INPUTS = new Module[0];
+
+    /**
+     * How often a module's output changes.  A CONSTANT module outputs the same value for
+     * every frame of a block (though it may change from block to block), and an AUDIO
+     * module may change on every frame.
+     **/
+    public enum Rate { CONSTANT, AUDIO }
+
+    // The rate of the block this module rendered most recently, so ask after getBlock().
+    // Modules which read a CONSTANT input may read it once per block instead of per frame.
+    public Rate getRate() {
+        return Rate.AUDIO;
+        }
+
     // The method that must be overwritten by each module
     protected abstract double tick(long tickCount);
 
@@ -17,4 +60,47 @@ public abstract class Module {
     public void doUpdate(long tickCount) {
         setValue(tick(tickCount));
         }
+
+    /**
+     * Renders frames samples starting at startTick into out.  By default this simply
+     * calls doUpdate() once per frame; modules override it with a tighter loop that
+     * reads whole blocks of their inputs through getBlock().
+     **/
+    public void processBlock(long startTick, int frames, double[] out) {
+        tickBlock(startTick, frames, out);
+        }
+
+    // The per-sample adapter: ticks once per frame, so getValue() on upstream
+    // modules which have already rendered this block returns the right frame
+    protected final void tickBlock(long startTick, int frames, double[] out) {
+        int frame = renderFrame;
+        for (int i = 0; i < frames; i++) {
+            renderFrame = i;
+            doUpdate(startTick + i);
+            out[i] = getValue();
+            }
+        renderFrame = frame;
+        }
+
+    /**
+     * Returns this module's output for the block starting at startTick,
+     * rendering it first if that hasn't happened yet.  The returned array
+     * is owned by the module and is only valid until the next block.
+     **/
+    public final double[] getBlock(long startTick, int frames) {
+        renderStart = startTick;
+        if (blockStart != startTick) {
+            if (stats != null && stats.isSampling()) {
+                long start = stats.begin();
+                processBlock(startTick, frames, block);
+                stats.end(this, start);
+                }
+            else {
+                processBlock(startTick, frames, block);
+                }
+            blockStart = startTick;
+            value = block[frames - 1];
+            }
+        return block;
+        }
     }
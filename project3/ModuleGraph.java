@@ -0,0 +1,69 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Compiles a patch into a flat execution plan.  Starting from the output module (and any
+ * monitors, such as oscilloscopes, which read the patch but feed nothing), it walks
+ * Module.getInputs() and orders every reachable module after all of its inputs.
+ * Modules which the output and monitors don't depend on never make it into the plan.
+ */
+public class ModuleGraph {
+    private static final int VISITING = 1;
+    private static final int DONE     = 2;
+
+    private final IdentityHashMap<Module, Integer> state = new IdentityHashMap<Module, Integer>();
+    private final ArrayList<Module> plan = new ArrayList<Module>();
+
+    private ModuleGraph() { }
+
+    /**
+     * Returns the modules reachable from output and monitors, each one after its inputs.
+     * Throws an IllegalArgumentException if the patch contains a feedback loop.
+     */
+    public static Module[] compile(Module output, List<Module> monitors) {
+        ModuleGraph graph = new ModuleGraph();
+        graph.visit(output);
+        for (Module m : monitors) {
+            graph.visit(m);
+        }
+        return graph.plan.toArray(new Module[graph.plan.size()]);
+    }
+
+    /**
+     * Returns the modules in declared which aren't part of plan
+     */
+    public static List<Module> unreachable(List<Module> declared, Module[] plan) {
+        IdentityHashMap<Module, Boolean> live = new IdentityHashMap<Module, Boolean>();
+        for (Module m : plan) {
+            live.put(m, Boolean.TRUE);
+        }
+        ArrayList<Module> dead = new ArrayList<Module>();
+        for (Module m : declared) {
+            if (!live.containsKey(m)) {
+                dead.add(m);
+            }
+        }
+        return dead;
+    }
+
+    // depth first, emitting each module once all of its inputs have been emitted
+    private void visit(Module m) {
+        if (m == null) {
+            return;
+        }
+        Integer s = state.get(m);
+        if (s != null && s == DONE) {
+            return;
+        }
+        if (s != null && s == VISITING) {
+            throw new IllegalArgumentException("Feedback loop in patch through " + m.getClass().getName());
+        }
+        state.put(m, VISITING);
+        for (Module input : m.getInputs()) {
+            visit(input);
+        }
+        state.put(m, DONE);
+        plan.add(m);
+    }
+}
@@ -2,20 +2,30 @@
  * Utility module that provides some common parameters for all modules inteded to be oscillators
  */
 public class Osc extends Module {
-    public    double state                                = 0;
+    public    int    state                                = 0; // the phase, in fixed point (see Phase)
     protected Module frequencyMod                         = new ConstantValue(Utils.hzToValue(220));
     public    void   setFrequencyMod(Module frequencyMod) {
         this.frequencyMod = frequencyMod;
     }
     public    Module getFrequencyMod()                    { return this.frequencyMod;         }
+    public    Module[] getInputs()                        { return new Module[] { frequencyMod }; }
 
     public double tick(long tickCount) {
         double hz = Utils.valueToHz(getFrequencyMod().getValue());
-        state += hz * Config.INV_SAMPLING_RATE;
-        if (state > 1) {
-            state -= 1;
+        state += Phase.increment(hz);
+        return Utils.sinPhase(state) * 0.5 + 0.5; // scale 0 to +1 instead of -1 to +1
+    }
+
+    public void processBlock(long startTick, int frames, double[] out) {
+        double[] frequency = getFrequencyMod().getBlock(startTick, frames);
+        // a held note's frequency only needs converting once
+        boolean steady = getFrequencyMod().getRate() == Rate.CONSTANT;
+        int increment = Phase.increment(Utils.valueToHz(frequency[0]));
+        Utils.Sine sine = Utils.getSine();
+        for (int i = 0; i < frames; i++) {
+            state += steady ? increment : Phase.increment(Utils.valueToHz(frequency[i]));
+            out[i] = Utils.sinPhase(state, sine) * 0.5 + 0.5;
         }
-        return Utils.fastSin(2 * Math.PI * state) * 0.5 + 0.5; // scale 0 to +1 instead of -1 to +1
     }
 
 }
@@ -71,6 +71,10 @@ public class Oscilloscope extends JComponent
             return Oscilloscope.this.amplitude;
             }
 
+        public Module[] getInputs() {
+            return new Module[] { getAmplitudeModule() };
+            }
+
         public double tick(long tickCount)
             {
             // this will be race condition but I gotta do it, it's too expensive otherwise
@@ -22,11 +22,16 @@ public class PM extends Osc {
     public void   setOutputAmplitude(Module p)   { outputAmplitude = p;    }
     public Module getOutputAmplitude()           { return outputAmplitude; }
 
+    public Module[] getInputs() { return new Module[] { frequencyMod, relativeFrequency, phaseAmplifier, outputAmplitude }; }
+
     public double tick(long tickCount) {
         double hz = Utils.valueToHz(getFrequencyMod().getValue()) * relativeFrequency.getValue();
-        state    += hz * Config.INV_SAMPLING_RATE;
-        if (state > 1) { state -= 1; }
-        double w  = 2*Math.PI*state;
-        return outputAmplitude.getValue()*Utils.fastSin(w);
+        state    += Phase.increment(hz);
+        return outputAmplitude.getValue()*Utils.sinPhase(state);
+    }
+
+    // not Osc's sine block: PM scales by relative frequency and output amplitude
+    public void processBlock(long startTick, int frames, double[] out) {
+        tickBlock(startTick, frames, out);
     }
 }
@@ -9,6 +9,10 @@ public class Scaler extends Module {
         this.offset = multiplier;
     }
 
+    public Module[] getInputs() {
+        return new Module[] { inputModule };
+    }
+
     public double getValue() {
         return multiplier * (inputModule.getValue() + offset);
     }
@@ -16,4 +20,15 @@ public class Scaler extends Module {
     public double tick(long tickCount) {
         return getValue();
     }
+
+    public Rate getRate() {
+        return inputModule.getRate();
+    }
+
+    public void processBlock(long startTick, int frames, double[] out) {
+        double[] in = inputModule.getBlock(startTick, frames);
+        for (int i = 0; i < frames; i++) {
+            out[i] = multiplier * (in[i] + offset);
+        }
+    }
 }
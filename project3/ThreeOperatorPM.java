@@ -35,6 +35,13 @@ public class ThreeOperatorPM extends Module {
     private PM operator3        = new PM();
     private Module algorithmMod = new ConstantValue(AlgorithmType.PARALLEL.ordinal());
     private AlgorithmType[] alg = AlgorithmType.values(); // hack... you'll see
+    // each operator's phase, in fixed point (see Phase), advanced sample by sample so it stays
+    // exact however long we run
+    private int phase1, phase2, phase3;
+    // the operators' phases at each sample of the block being rendered
+    private final int[] phases1 = new int[Config.BLOCK_SIZE];
+    private final int[] phases2 = new int[Config.BLOCK_SIZE];
+    private final int[] phases3 = new int[Config.BLOCK_SIZE];
 
     // an operator is an amplifier/envelope and relative frequency
     // you can only alter the relative frequency and envelope
@@ -57,6 +64,16 @@ public class ThreeOperatorPM extends Module {
 
     public void setAlgorithmMod(Module m) { this.algorithmMod = m; }
 
+    // the operators are ticked from here, so only what drives them counts as input
+    public Module[] getInputs() {
+        return new Module[] {
+            frequencyMod, algorithmMod,
+            operator1.getRelativeFrequency(), operator1.getPhaseAmplifier(), operator1.getOutputAmplitude(),
+            operator2.getRelativeFrequency(), operator2.getPhaseAmplifier(), operator2.getOutputAmplitude(),
+            operator3.getRelativeFrequency(), operator3.getPhaseAmplifier(), operator3.getOutputAmplitude()
+        };
+    }
+
     public void setOperatorRelativeFrequencyMod(int operatorN, Module m) {
       switch(operatorN) {
         case 1:
@@ -101,59 +118,124 @@ public class ThreeOperatorPM extends Module {
         operator1.tick(tickCount);
         operator2.tick(tickCount);
         operator3.tick(tickCount);
+        Utils.Sine sine = Utils.getSine();
 
         switch (getAlgorithmType()) {
             case PARALLEL: {
-                double f1 = hz * operator1.getRelativeFrequency().getValue();
-                double f2 = hz * operator2.getRelativeFrequency().getValue();
-                double f3 = hz * operator3.getRelativeFrequency().getValue();
                 double e1 = operator1.getOutputAmplitude().getValue();
                 double e2 = operator2.getOutputAmplitude().getValue();
                 double e3 = operator3.getOutputAmplitude().getValue();
-                double  x = 2 * Math.PI * tickCount * Config.INV_SAMPLING_RATE;
                 // parallel is just additive synthesis
-                value     = 0.333*(e3*Utils.fastSin(f3*x)+e2*Utils.fastSin(f2*x)+e1*Utils.fastSin(f1*x));
+                value     = 0.333*(e3*Utils.sinPhase(phase3, sine)+e2*Utils.sinPhase(phase2, sine)+e1*Utils.sinPhase(phase1, sine));
             }
                 break;
             case SERIAL: {
-                double f1 = hz * operator1.getRelativeFrequency().getValue();
-                double f2 = hz * operator2.getRelativeFrequency().getValue();
-                double f3 = hz * operator3.getRelativeFrequency().getValue();
                 double e1 = operator1.getOutputAmplitude().getValue();
                 double e2 = operator2.getOutputAmplitude().getValue();
                 double e3 = operator3.getOutputAmplitude().getValue();
                 double p1 = operator1.getPhaseAmplifier().getValue();
                 double p2 = operator2.getPhaseAmplifier().getValue();
                 double p3 = operator3.getPhaseAmplifier().getValue();
-                double  x = 2 * Math.PI * tickCount * Config.INV_SAMPLING_RATE;
-                value     = e3 * p3 * Utils.fastSin(f3 * x +
-                            e2 * p2 * Utils.fastSin(f2 * x +
-                            e1 * p1 * Utils.fastSin(f1 * x)));
+                value     = e3 * p3 * sin(phase3,
+                            e2 * p2 * sin(phase2,
+                            e1 * p1 * Utils.sinPhase(phase1, sine), sine), sine);
             }
                 break;
             case BRANCH: {
-                double f2 = hz * operator2.getRelativeFrequency().getValue();
-                double f3 = hz * operator3.getRelativeFrequency().getValue();
                 double e2 = operator2.getOutputAmplitude().getValue();
                 double e3 = operator3.getOutputAmplitude().getValue();
                 double p2 = operator2.getPhaseAmplifier().getValue();
                 double p3 = operator3.getPhaseAmplifier().getValue();
-                double  x = 2 * Math.PI * tickCount * Config.INV_SAMPLING_RATE;
-                value    += e2 * p2 * Utils.fastSin(f2 * x + operator1.getValue());
-                value    += e3 * p3 * Utils.fastSin(f3 * x + operator1.getValue());
+                value    += e2 * p2 * sin(phase2, operator1.getValue(), sine);
+                value    += e3 * p3 * sin(phase3, operator1.getValue(), sine);
                 value    *= 0.5;
             }
                 break;
             case MERGE: {
-                double f3 = hz * operator3.getRelativeFrequency().getValue();
                 double e3 = operator3.getOutputAmplitude().getValue();
                 double p3 = operator3.getPhaseAmplifier().getValue();
-                double x  = 2 * Math.PI * tickCount * Config.INV_SAMPLING_RATE;
-                value     = e3 * p3 * Utils.fastSin(f3 * x + operator1.getValue() + operator2.getValue());
+                value     = e3 * p3 * sin(phase3, operator1.getValue() + operator2.getValue(), sine);
             }
                 break;
         }
+        // every operator moves on, whichever the algorithm sounds, so changing it doesn't jump
+        phase1 += Phase.increment(hz * operator1.getRelativeFrequency().getValue());
+        phase2 += Phase.increment(hz * operator2.getRelativeFrequency().getValue());
+        phase3 += Phase.increment(hz * operator3.getRelativeFrequency().getValue());
         value = (value+1.0)*0.5; // [-1 to +1] -> [0 to +1]
         return value;
     }
+
+    // Renders a whole block.  The operators are not ticked here: their phase state is never
+    // read (the output's phases are phase1 to phase3), so only their modulators are pulled.
+    public void processBlock(long startTick, int frames, double[] out) {
+        double[] frequency = getFrequencyMod().getBlock(startTick, frames);
+        double[] e1        = operator1.getOutputAmplitude().getBlock(startTick, frames);
+        double[] e2        = operator2.getOutputAmplitude().getBlock(startTick, frames);
+        double[] e3        = operator3.getOutputAmplitude().getBlock(startTick, frames);
+        // relative frequencies, phase amplifiers and the algorithm come from the UI: read them once
+        double r1 = operator1.getRelativeFrequency().getValue();
+        double r2 = operator2.getRelativeFrequency().getValue();
+        double r3 = operator3.getRelativeFrequency().getValue();
+        double p1 = operator1.getPhaseAmplifier().getValue();
+        double p2 = operator2.getPhaseAmplifier().getValue();
+        double p3 = operator3.getPhaseAmplifier().getValue();
+        double v1 = operator1.getValue();
+        double v2 = operator2.getValue();
+        Utils.Sine sine = Utils.getSine();
+        // a held note's frequency only needs converting once
+        boolean steady = getFrequencyMod().getRate() == Rate.CONSTANT;
+        double hz0 = Utils.valueToHz(frequency[0]);
+        int i1 = Phase.increment(hz0 * r1);
+        int i2 = Phase.increment(hz0 * r2);
+        int i3 = Phase.increment(hz0 * r3);
+        for (int i = 0; i < frames; i++) {
+            if (!steady) {
+                double hz = Utils.valueToHz(frequency[i]);
+                i1 = Phase.increment(hz * r1);
+                i2 = Phase.increment(hz * r2);
+                i3 = Phase.increment(hz * r3);
+            }
+            phases1[i] = phase1;
+            phases2[i] = phase2;
+            phases3[i] = phase3;
+            phase1 += i1;
+            phase2 += i2;
+            phase3 += i3;
+        }
+
+        switch (getAlgorithmType()) {
+            case PARALLEL:
+                for (int i = 0; i < frames; i++) {
+                    out[i]    = 0.333*(e3[i]*Utils.sinPhase(phases3[i], sine)+e2[i]*Utils.sinPhase(phases2[i], sine)+e1[i]*Utils.sinPhase(phases1[i], sine));
+                }
+                break;
+            case SERIAL:
+                for (int i = 0; i < frames; i++) {
+                    out[i]    = e3[i] * p3 * sin(phases3[i],
+                                e2[i] * p2 * sin(phases2[i],
+                                e1[i] * p1 * Utils.sinPhase(phases1[i], sine), sine), sine);
+                }
+                break;
+            case BRANCH:
+                for (int i = 0; i < frames; i++) {
+                    out[i]    = (e2[i] * p2 * sin(phases2[i], v1, sine) +
+                                 e3[i] * p3 * sin(phases3[i], v1, sine)) * 0.5;
+                }
+                break;
+            case MERGE:
+                for (int i = 0; i < frames; i++) {
+                    out[i]    = e3[i] * p3 * sin(phases3[i], v1 + v2, sine);
+                }
+                break;
+        }
+        for (int i = 0; i < frames; i++) {
+            out[i] = (out[i]+1.0)*0.5; // [-1 to +1] -> [0 to +1]
+        }
+    }
+
+    // the sine of phase pushed on by modulation radians
+    private static double sin(int phase, double modulation, Utils.Sine sine) {
+        return Utils.sinPhase(phase + Phase.fromTurns(modulation * Utils.INV_TWO_PI), sine);
+    }
 }
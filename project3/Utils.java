@@ -1,15 +1,46 @@
 public class Utils {
     public static final double WELL_ABOVE_SUBNORMALS = 1.0e-200;
     public static final double T = Config.INV_SAMPLING_RATE;
-    static final int SIN_TABLE_LENGTH = 65536;  // * 16;
-    static final double SIN_MULTIPLIER = SIN_TABLE_LENGTH / Math.PI / 2;
-    static double[] sinTable = new double[SIN_TABLE_LENGTH];
+    static final double INV_TWO_PI = 1.0 / (2 * Math.PI);
 
-    static {
-        for (int i = 0; i < SIN_TABLE_LENGTH; ++i) {
-            sinTable[i] = (double) Math.sin((double) i * Math.PI * (2.0 / SIN_TABLE_LENGTH));
-            }
+    /**
+     * The ways sinTurns() can work out a sine.  They trade accuracy against how much memory
+     * they keep in cache: LINEAR reads a 16 KB table, CUBIC a table of 1 KB, and POLYNOMIAL
+     * none at all.
+     */
+    public enum Sine {
+        /** 4096 floats, interpolated linearly: off Math.sin() by at most 3.22e-7 */
+        LINEAR,
+        /** 256 floats, interpolated with a cubic through the four nearest: at most 3.95e-8 */
+        CUBIC,
+        /** A degree 9 minimax polynomial on a quarter of the cycle: at most 3.34e-9 */
+        POLYNOMIAL
+        }
+
+    static final int LINEAR_SIN_BITS = 12;
+    static final int LINEAR_SIN_LENGTH = 1 << LINEAR_SIN_BITS;
+    static final int CUBIC_SIN_BITS = 8;
+    static final int CUBIC_SIN_LENGTH = 1 << CUBIC_SIN_BITS;
+    // one cycle, with the first sample repeated at the end for interpolation
+    static final float[] linearSinTable = buildSinTable(LINEAR_SIN_LENGTH, 0, 1);
+    // one cycle, starting a sample early and ending two late so the cubic never wraps
+    static final float[] cubicSinTable = buildSinTable(CUBIC_SIN_LENGTH, -1, 2);
+
+    // the minimax polynomial's coefficients for x, x^3 ... x^9, with x in turns from -0.25 to 0.25
+    static final double SIN_1 = 6.2831851600894835;
+    static final double SIN_3 = -41.34165503141761;
+    static final double SIN_5 = 81.60100407334106;
+    static final double SIN_7 = -76.54978229534504;
+    static final double SIN_9 = 39.53670607844828;
 
+    static volatile Sine sine = Sine.LINEAR;
+
+    static float[] buildSinTable(int length, int before, int after) {
+        float[] table = new float[length + after - before];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (float) Math.sin(2 * Math.PI * (i + before) / length);
+            }
+        return table;
         }
 
     /**
@@ -91,24 +122,121 @@ public class Utils {
         return System.getProperty("os.name").toLowerCase();
         }
 
+    // the OS doesn't change while we run, so ask once
+    private static final boolean UNIX = (OS().indexOf("nix") >= 0 || OS().indexOf("nux") >= 0 || OS().indexOf("aix") > 0);
+
     public static boolean isUnix() {
-        return (OS().indexOf("nix") >= 0 || OS().indexOf("nux") >= 0 || OS().indexOf("aix") > 0);
+        return UNIX;
         }
 
     /**
-     * A fast approximation of Sine using a lookup table.
+     * Returns how fastSin(), sinTurns() and sinPhase() work out sines when they aren't told.  Modules
+     * read this once a block, so it may be changed while the synth runs.
+     */
+    public static Sine getSine() {
+        return sine;
+        }
+
+    public static void setSine(Sine sine) {
+        Utils.sine = sine;
+        }
+
+    /**
+     * A fast approximation of Sine, of an angle in radians.
      */
     public static final double fastSin(double f) {
-        /*
-        // interpolating version -- seems to make little to no difference
-        double v = f * SIN_MULTIPLIER;
-        int conv = (int) v;
-        double alpha = v - conv;
-        int slot1 = conv & (SIN_TABLE_LENGTH - 1);
-        int slot2 = (slot1 + 1) & SIN_TABLE_LENGTH;
-        return sinTable[slot2] * alpha + sinTable[slot1] * (1.0 - alpha);
-        */
-        return sinTable[(int) (f * SIN_MULTIPLIER) & (SIN_TABLE_LENGTH - 1)];
+        return sinTurns(f * INV_TWO_PI, sine);
+        }
+
+    /**
+     * A fast approximation of the sine of phase, in turns (1.0 is a whole cycle), which
+     * saves oscillators multiplying their phase by 2 pi.
+     */
+    public static final double sinTurns(double phase) {
+        return sinTurns(phase, sine);
+        }
+
+    /**
+     * A fast approximation of the sine of phase, in turns, worked out the given way.
+     */
+    public static final double sinTurns(double phase, Sine sine) {
+        // compared in turn, as a switch on an enum would look the case up in an array first,
+        // and each kept in a method of its own so the whole is small enough to be inlined
+        if (sine == Sine.LINEAR)
+            return linearSin(phase);
+        if (sine == Sine.CUBIC)
+            return cubicSin(phase);
+        return polynomialSin(phase);
+        }
+
+    /**
+     * A fast approximation of the sine of a fixed-point phase (see Phase), worked out the given
+     * way.  The tables are indexed by the phase's top bits and interpolated by the bits below,
+     * without the conversions sinTurns() needs.
+     */
+    public static final double sinPhase(int phase, Sine sine) {
+        if (sine == Sine.LINEAR)
+            return linearSin(Phase.index(phase, LINEAR_SIN_BITS), Phase.fraction(phase, LINEAR_SIN_BITS));
+        if (sine == Sine.CUBIC)
+            return cubicSin(Phase.index(phase, CUBIC_SIN_BITS), Phase.fraction(phase, CUBIC_SIN_BITS));
+        // as a signed number the phase runs from -1/2 to 1/2 a turn
+        return polynomialSin(phase * Phase.INV_STEPS);
+        }
+
+    public static final double sinPhase(int phase) {
+        return sinPhase(phase, sine);
+        }
+
+    static double linearSin(double phase) {
+        double position = phase * LINEAR_SIN_LENGTH;
+        long whole = (long) position;
+        double alpha = position - whole;
+        if (alpha < 0) {
+            // (long) rounds negative positions up, not down
+            alpha += 1;
+            whole--;
+            }
+        return linearSin((int) whole & (LINEAR_SIN_LENGTH - 1), alpha);
+        }
+
+    // the sine alpha of the way from entry index of the linear table to the next
+    static double linearSin(int index, double alpha) {
+        return linearSinTable[index] + (linearSinTable[index + 1] - linearSinTable[index]) * alpha;
+        }
+
+    static double cubicSin(double phase) {
+        double position = phase * CUBIC_SIN_LENGTH;
+        long whole = (long) position;
+        double alpha = position - whole;
+        if (alpha < 0) {
+            alpha += 1;
+            whole--;
+            }
+        return cubicSin((int) whole & (CUBIC_SIN_LENGTH - 1), alpha);
+        }
+
+    // the sine alpha of the way from entry index of the cubic table to the next
+    static double cubicSin(int index, double alpha) {
+        // cubicSinTable[index + 1] is the sample at index
+        double p0 = cubicSinTable[index];
+        double p1 = cubicSinTable[index + 1];
+        double p2 = cubicSinTable[index + 2];
+        double p3 = cubicSinTable[index + 3];
+        double c1 = p2 - p0 / 3 - p1 / 2 - p3 / 6;
+        double c2 = (p0 + p2) / 2 - p1;
+        double c3 = (p3 - p0) / 6 + (p1 - p2) / 2;
+        return ((c3 * alpha + c2) * alpha + c1) * alpha + p1;
+        }
+
+    static double polynomialSin(double phase) {
+        // fold into -0.25 to 0.25, where the polynomial is fitted
+        double x = phase - Math.rint(phase);
+        if (x > 0.25)
+            x = 0.5 - x;
+        else if (x < -0.25)
+            x = -0.5 - x;
+        double x2 = x * x;
+        return x * (SIN_1 + x2 * (SIN_3 + x2 * (SIN_5 + x2 * (SIN_7 + x2 * SIN_9))));
         }
 
     public static double lerp(double v1, double v2, double ctime, double btime, double etime) {
@@ -0,0 +1,114 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams mono PCM to a WAV file.  Samples are converted a block at a time into a reusable
+ * array, copied in one go into a reusable direct buffer (which a FileChannel writes without
+ * copying it again), and the header is filled in when the writer is closed.
+ *
+ * Samples range from 0 to 1 and are converted by the same PcmConverter that Synth uses
+ * for the audio line, so a render matches what you would hear.
+ */
+public class WavWriter {
+    // RIFF, fmt and data chunk headers; float adds cbSize to fmt, and a fact chunk, as non-PCM formats must
+    private static final int PCM_HEADER_SIZE = 44;
+    private static final int FLOAT_HEADER_SIZE = 58;
+    // how many frames are buffered between writes to the file
+    private static final int BUFFER_FRAMES = 16384;
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_IEEE_FLOAT = 3;
+
+    private final FileChannel channel;
+    private final PcmConverter converter;
+    private final byte[] bytes;
+    private final ByteBuffer buffer;
+    private final int bytesPerSample;
+    private final boolean floating;
+    private final int headerSize;
+    private int position = 0;
+    private long frames = 0;
+
+    /**
+     * Creates (or replaces) file, writing samples of the given bit depth: 16, 24 or 32 (float)
+     */
+    public WavWriter(File file, int bits) throws IOException {
+        this.converter = new PcmConverter(PcmConverter.Format.forBits(bits));
+        this.bytesPerSample = bits / 8;
+        this.floating = converter.getFormat() == PcmConverter.Format.FLOAT_32;
+        this.headerSize = floating ? FLOAT_HEADER_SIZE : PCM_HEADER_SIZE;
+        this.bytes = new byte[BUFFER_FRAMES * bytesPerSample];
+        this.buffer = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        channel.position(headerSize);
+    }
+
+    /**
+     * Writes the first count samples of samples
+     */
+    public void write(double[] samples, int count) throws IOException {
+        int from = 0;
+        while (from < count) {
+            if (position == bytes.length) {
+                flush();
+            }
+            int n = Math.min(count - from, (bytes.length - position) / bytesPerSample);
+            position += converter.convert(samples, from, n, bytes, position);
+            from += n;
+        }
+        frames += count;
+    }
+
+    /**
+     * Returns how many frames have been written
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Writes out anything buffered, fills in the header, and closes the file
+     */
+    public void close() throws IOException {
+        flush();
+        long dataSize = frames * bytesPerSample;
+        ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] { 'R', 'I', 'F', 'F' });
+        header.putInt((int) (headerSize - 8 + dataSize));
+        header.put(new byte[] { 'W', 'A', 'V', 'E', 'f', 'm', 't', ' ' });
+        header.putInt(floating ? 18 : 16);                  // size of the fmt chunk
+        header.putShort((short) (floating ? WAVE_FORMAT_IEEE_FLOAT : WAVE_FORMAT_PCM));
+        header.putShort((short) 1);                         // mono
+        header.putInt((int) Config.SAMPLING_RATE);
+        header.putInt((int) Config.SAMPLING_RATE * bytesPerSample);
+        header.putShort((short) bytesPerSample);            // bytes per frame
+        header.putShort((short) (bytesPerSample * 8));
+        if (floating) {
+            header.putShort((short) 0);                     // cbSize: no extension
+            header.put(new byte[] { 'f', 'a', 'c', 't' });
+            header.putInt(4);
+            header.putInt((int) frames);
+        }
+        header.put(new byte[] { 'd', 'a', 't', 'a' });
+        header.putInt((int) dataSize);
+        header.flip();
+        channel.position(0);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.close();
+    }
+
+    private void flush() throws IOException {
+        buffer.clear();
+        buffer.put(bytes, 0, position).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        position = 0;
+    }
+}